@@ -0,0 +1,228 @@
+package tianci.dev.xptranslatetext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds classes that declare {@code setText(CharSequence)} or {@code setText(String)}
+ * by reading dex files directly (string/type/proto/method id tables, class_defs and
+ * class_data), so discovery never loads, links or initializes a class. Plain Java with
+ * no Android dependencies, so it runs on the JVM against sample dex files.
+ */
+final class DexSetTextScanner {
+    private static final Pattern DEX_ENTRY = Pattern.compile("classes\\d*\\.dex");
+    private static final byte[] SET_TEXT = "setText".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHAR_SEQUENCE = "Ljava/lang/CharSequence;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STRING = "Ljava/lang/String;".getBytes(StandardCharsets.US_ASCII);
+
+    private DexSetTextScanner() {
+    }
+
+    /**
+     * Scan every classesN.dex in the given APKs, one dex file at a time, so only a
+     * single dex image is in memory even for large multidex apps.
+     *
+     * @return matching class names in binary form ("a.b.C$D"), or null when the APKs
+     * contain no dex files (e.g. pre-optimized system apps)
+     */
+    static List<String> scanApks(List<String> apkPaths) throws IOException {
+        Set<String> found = new LinkedHashSet<>();
+        boolean anyDex = false;
+        for (String path : apkPaths) {
+            try (ZipFile zip = new ZipFile(path)) {
+                Enumeration<? extends ZipEntry> e = zip.entries();
+                while (e.hasMoreElements()) {
+                    ZipEntry entry = e.nextElement();
+                    if (!DEX_ENTRY.matcher(entry.getName()).matches()) continue;
+                    anyDex = true;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        found.addAll(scan(readAll(in, entry.getSize())));
+                    }
+                }
+            }
+        }
+        return anyDex ? new ArrayList<>(found) : null;
+    }
+
+    private static byte[] readAll(InputStream in, long sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint > 0 ? (int) sizeHint : 1 << 20);
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** Scan one dex file image. */
+    static List<String> scan(byte[] dexBytes) {
+        ByteBuffer dex = ByteBuffer.wrap(dexBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (dexBytes.length < 0x70 || dex.get(0) != 'd' || dex.get(1) != 'e' || dex.get(2) != 'x' || dex.get(3) != '\n') {
+            throw new IllegalArgumentException("not a dex file");
+        }
+        int stringIdsSize = dex.getInt(0x38);
+        int stringIdsOff = dex.getInt(0x3C);
+        int typeIdsSize = dex.getInt(0x40);
+        int typeIdsOff = dex.getInt(0x44);
+        int protoIdsSize = dex.getInt(0x48);
+        int protoIdsOff = dex.getInt(0x4C);
+        int methodIdsSize = dex.getInt(0x58);
+        int methodIdsOff = dex.getInt(0x5C);
+        int classDefsSize = dex.getInt(0x60);
+        int classDefsOff = dex.getInt(0x64);
+
+        List<String> found = new ArrayList<>();
+
+        // 1) string indices of the names we need
+        int setTextStr = -1, charSeqStr = -1, stringStr = -1;
+        for (int i = 0; i < stringIdsSize; i++) {
+            int data = dex.getInt(stringIdsOff + 4 * i);
+            if (setTextStr < 0 && stringEquals(dex, data, SET_TEXT)) setTextStr = i;
+            else if (charSeqStr < 0 && stringEquals(dex, data, CHAR_SEQUENCE)) charSeqStr = i;
+            else if (stringStr < 0 && stringEquals(dex, data, STRING)) stringStr = i;
+        }
+        if (setTextStr < 0 || (charSeqStr < 0 && stringStr < 0)) return found;
+
+        // 2) type indices for the parameter types
+        int charSeqType = -1, stringType = -1;
+        for (int i = 0; i < typeIdsSize; i++) {
+            int descriptor = dex.getInt(typeIdsOff + 4 * i);
+            if (descriptor == charSeqStr) charSeqType = i;
+            else if (descriptor == stringStr) stringType = i;
+        }
+
+        // 3) protos taking exactly one CharSequence or String
+        boolean[] protoMatch = new boolean[protoIdsSize];
+        boolean anyProto = false;
+        for (int i = 0; i < protoIdsSize; i++) {
+            int paramsOff = dex.getInt(protoIdsOff + 12 * i + 8);
+            if (paramsOff == 0 || dex.getInt(paramsOff) != 1) continue;
+            int type = dex.getShort(paramsOff + 4) & 0xFFFF;
+            if (type == charSeqType || type == stringType) {
+                protoMatch[i] = true;
+                anyProto = true;
+            }
+        }
+        if (!anyProto) return found;
+
+        // 4) method ids named setText with such a proto, and the classes they belong to.
+        // Method ids also cover methods only referenced here, so class_data decides below.
+        boolean[] methodMatch = new boolean[methodIdsSize];
+        boolean[] candidateType = new boolean[typeIdsSize];
+        for (int i = 0; i < methodIdsSize; i++) {
+            int base = methodIdsOff + 8 * i;
+            if (dex.getInt(base + 4) != setTextStr) continue;
+            if (!protoMatch[dex.getShort(base + 2) & 0xFFFF]) continue;
+            methodMatch[i] = true;
+            candidateType[dex.getShort(base) & 0xFFFF] = true;
+        }
+
+        // 5) class_defs of candidate types that actually declare one of those methods
+        for (int i = 0; i < classDefsSize; i++) {
+            int base = classDefsOff + 32 * i;
+            int classType = dex.getInt(base);
+            if (classType < 0 || classType >= typeIdsSize || !candidateType[classType]) continue;
+            int classDataOff = dex.getInt(base + 24);
+            if (classDataOff == 0) continue;
+            if (declaresMatch(dex, classDataOff, methodMatch)) {
+                found.add(className(dex, stringIdsOff, dex.getInt(typeIdsOff + 4 * classType)));
+            }
+        }
+        return found;
+    }
+
+    private static boolean declaresMatch(ByteBuffer dex, int classDataOff, boolean[] methodMatch) {
+        Cursor c = new Cursor(dex, classDataOff);
+        int staticFields = c.uleb();
+        int instanceFields = c.uleb();
+        int directMethods = c.uleb();
+        int virtualMethods = c.uleb();
+        for (int i = 0; i < staticFields + instanceFields; i++) {
+            c.uleb(); // field_idx_diff
+            c.uleb(); // access_flags
+        }
+        for (int list = 0; list < 2; list++) {
+            int count = list == 0 ? directMethods : virtualMethods;
+            int methodIdx = 0; // diffs restart for the virtual list
+            for (int i = 0; i < count; i++) {
+                methodIdx += c.uleb();
+                c.uleb(); // access_flags
+                c.uleb(); // code_off
+                if (methodIdx < methodMatch.length && methodMatch[methodIdx]) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Compare a string_data_item with an ASCII name without decoding it. */
+    private static boolean stringEquals(ByteBuffer dex, int dataOff, byte[] ascii) {
+        int p = dataOff;
+        while ((dex.get(p++) & 0x80) != 0) {
+            // skip utf16_size uleb128
+        }
+        if (p + ascii.length >= dex.limit()) return false;
+        for (int i = 0; i < ascii.length; i++) {
+            if (dex.get(p + i) != ascii[i]) return false;
+        }
+        return dex.get(p + ascii.length) == 0;
+    }
+
+    /** "La/b/C$D;" -> "a.b.C$D", decoding MUTF-8. */
+    private static String className(ByteBuffer dex, int stringIdsOff, int stringIdx) {
+        Cursor c = new Cursor(dex, dex.getInt(stringIdsOff + 4 * stringIdx));
+        int utf16Size = c.uleb();
+        StringBuilder sb = new StringBuilder(utf16Size);
+        while (true) {
+            int b = dex.get(c.pos++) & 0xFF;
+            if (b == 0) break;
+            char ch;
+            if (b < 0x80) {
+                ch = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                ch = (char) (((b & 0x1F) << 6) | (dex.get(c.pos++) & 0x3F));
+            } else {
+                int b2 = dex.get(c.pos++) & 0x3F;
+                int b3 = dex.get(c.pos++) & 0x3F;
+                ch = (char) (((b & 0x0F) << 12) | (b2 << 6) | b3);
+            }
+            sb.append(ch == '/' ? '.' : ch);
+        }
+        int start = sb.length() > 0 && sb.charAt(0) == 'L' ? 1 : 0;
+        int end = sb.length() > 0 && sb.charAt(sb.length() - 1) == ';' ? sb.length() - 1 : sb.length();
+        return sb.substring(start, end);
+    }
+
+    private static final class Cursor {
+        final ByteBuffer dex;
+        int pos;
+
+        Cursor(ByteBuffer dex, int pos) {
+            this.dex = dex;
+            this.pos = pos;
+        }
+
+        int uleb() {
+            int result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = dex.get(pos++) & 0xFF;
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && shift < 35);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package tianci.dev.xptranslatetext;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tianci.dev.xptranslatetext.translate.TranslationMetrics;
+
+/**
+ * How long the UI thread may block on synchronous translation, per Choreographer frame.
+ * By default the budget is a quarter of the display's frame interval, at most
+ * {@link #DEFAULT_FRAME_BUDGET_MS} (about 4 ms at 60 Hz, 2 ms at 120 Hz), so waiting never
+ * costs a frame by itself. The {@code sync_frame_budget_ms} pref replaces it with a fixed
+ * budget, higher or lower, for users who prefer fewer untranslated first frames to
+ * smooth ones.
+ * All StaticLayout builds in one frame share one budget, and nothing waits while a
+ * view is scrolling or flinging; callers fall back to async prefetch when they get 0.
+ * Only main-thread callers are budgeted; layouts built on background threads block
+ * nobody and get what they ask for.
+ *
+ * <p>Callers ask for the adaptive wait of
+ * {@code MultiSegmentTranslateTask.syncWaitBudgetMs} (the quick path's p95, 50-1000 ms);
+ * on the main thread this budget is the effective limit, so that range only applies to
+ * background layouts or to a pref budget large enough to reach it.
+ */
+final class FrameBudget {
+    /** Cap on the default, refresh-rate-derived per-frame budget. */
+    static final long DEFAULT_FRAME_BUDGET_MS = 4;
+    private static final int FRAME_FRACTION = 4;
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+    // A scroll callback within this window means the list is still moving.
+    private static final long SCROLL_QUIET_MS = 150;
+
+    private static final AtomicLong OVERRUNS = TranslationMetrics.counter("frame_budget.overrun");
+    private static final AtomicLong EXHAUSTED = TranslationMetrics.counter("frame_budget.exhausted");
+    private static final AtomicLong SCROLL_SKIPS = TranslationMetrics.counter("frame_budget.scroll_skip");
+
+    // Fixed budget from the pref, or -1 for the default derived from the frame interval.
+    private static volatile long configuredBudgetNanos = -1;
+    private static volatile long frameBudgetNanos = budgetNanos(DEFAULT_FRAME_INTERVAL_NANOS);
+    private static volatile long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+    // Main thread only.
+    private static long spentNanos;
+    private static boolean overrunCounted;
+    private static boolean frameCallbackPosted;
+    private static long lastScrollUptimeMs = Long.MIN_VALUE / 2;
+
+    private static final Choreographer.FrameCallback NEXT_FRAME = frameTimeNanos -> {
+        frameCallbackPosted = false;
+        spentNanos = 0;
+        overrunCounted = false;
+    };
+
+    private FrameBudget() {
+    }
+
+    /** Fixed per-frame budget, whatever the refresh rate; negative restores the default. */
+    static void setFrameBudgetMs(long ms) {
+        configuredBudgetNanos = ms < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(ms);
+        frameBudgetNanos = budgetNanos(frameIntervalNanos);
+    }
+
+    /** The display's refresh rate, from the first Activity's display. */
+    static void setRefreshRate(float hz) {
+        if (!(hz >= 10 && hz <= 1000)) return; // NaN or nonsense from a virtual display
+        frameIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / hz);
+        frameBudgetNanos = budgetNanos(frameIntervalNanos);
+    }
+
+    private static long budgetNanos(long intervalNanos) {
+        long configured = configuredBudgetNanos;
+        if (configured >= 0) return configured;
+        return Math.min(TimeUnit.MILLISECONDS.toNanos(DEFAULT_FRAME_BUDGET_MS), intervalNanos / FRAME_FRACTION);
+    }
+
+    /** A view scrolled; called from the View.onScrollChanged hook. */
+    static void onScroll() {
+        lastScrollUptimeMs = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * @return how long the caller may wait now, at most {@code wantedMs}; 0 means
+     * don't wait at all
+     */
+    static long acquire(long wantedMs) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            return wantedMs;
+        }
+        if (SystemClock.uptimeMillis() - lastScrollUptimeMs < SCROLL_QUIET_MS) {
+            SCROLL_SKIPS.incrementAndGet();
+            return 0;
+        }
+        ensureFrameCallback();
+        // Round up: a 2.08 ms budget at 120 Hz should still allow a 2 ms wait.
+        long leftMs = (frameBudgetNanos - spentNanos + 999_999) / 1_000_000;
+        if (leftMs <= 0) {
+            EXHAUSTED.incrementAndGet();
+            return 0;
+        }
+        return Math.min(wantedMs, leftMs);
+    }
+
+    /** Charge a finished wait to the current frame. */
+    static void spend(long waitedNanos) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            return;
+        }
+        spentNanos += waitedNanos;
+        if (spentNanos > frameBudgetNanos && !overrunCounted) {
+            overrunCounted = true;
+            OVERRUNS.incrementAndGet();
+        }
+    }
+
+    // The budget resets when the next frame callback runs, i.e. at the next vsync.
+    private static void ensureFrameCallback() {
+        if (!frameCallbackPosted) {
+            frameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(NEXT_FRAME);
+        }
+    }
+}
@@ -2,10 +2,16 @@ package tianci.dev.xptranslatetext;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
+import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.webkit.WebView;
 import android.widget.TextView;
 import android.widget.EditText;
@@ -13,12 +19,13 @@ import android.widget.EditText;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import dalvik.system.DexFile;
 import de.robv.android.xposed.IXposedHookLoadPackage;
@@ -29,11 +36,16 @@ import de.robv.android.xposed.XposedHelpers;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
 
 import de.robv.android.xposed.XSharedPreferences;
-import tianci.dev.xptranslatetext.rules.Telegram;
+import tianci.dev.xptranslatetext.rules.SkipRules;
 import tianci.dev.xptranslatetext.translate.MultiSegmentTranslateTask;
+import tianci.dev.xptranslatetext.translate.ProducedTranslations;
 import tianci.dev.xptranslatetext.translate.Segment;
+import tianci.dev.xptranslatetext.translate.SpanSegmenter;
 import tianci.dev.xptranslatetext.translate.SpanSpec;
+import tianci.dev.xptranslatetext.translate.TranslationMetrics;
+import tianci.dev.xptranslatetext.translate.TranslationTokens;
 import tianci.dev.xptranslatetext.translate.WebViewTranslationBridge;
+import tianci.dev.xptranslatetext.util.WeakIdentityMap;
 
 /**
  * Xposed entry point. Hooks TextView, StaticLayout, WebView, and custom setText methods
@@ -44,8 +56,33 @@ public class HookMain implements IXposedHookLoadPackage {
 
     private static boolean isTranslating = false;
 
-    private static final AtomicInteger atomicIdGenerator = new AtomicInteger(1);
-    public static final String TRANSLATION_ID_KEY = "xp_translate_text:translationId";
+    // Per package: several packages can be loaded into one process, each with its own stage.
+    private static final Set<String> CUSTOM_SET_TEXT_STAGE_STARTED = ConcurrentHashMap.newKeySet();
+    private static final Set<String> ACTIVITY_CREATED = ConcurrentHashMap.newKeySet();
+    // Processes that never create an Activity (services, providers) start the custom setText stage this long after Application.onCreate.
+    private static final long CUSTOM_SET_TEXT_FALLBACK_DELAY_MS = 3000;
+    private static final WeakIdentityMap<WebView, Boolean> BRIDGED_WEBVIEWS = new WeakIdentityMap<>();
+
+    // Source text of a StaticLayout build -> what we laid out instead, so the repeated
+    // builds a TextView does during measure/layout/invalidate skip segmentation and lookups.
+    private static final class LayoutMemo {
+        final int start;
+        final int end;
+        final CharSequence translated;
+
+        LayoutMemo(int start, int end, CharSequence translated) {
+            this.start = start;
+            this.end = end;
+            this.translated = translated;
+        }
+    }
+
+    private static final WeakIdentityMap<CharSequence, LayoutMemo> LAYOUT_MEMO = new WeakIdentityMap<>();
+    private static final AtomicLong LAYOUT_MEMO_HITS = TranslationMetrics.counter("layout_memo.hit");
+    private static final AtomicLong LAYOUT_MEMO_MISSES = TranslationMetrics.counter("layout_memo.miss");
+    // In-situ cost of the TextView.setText hook; average = nanos / calls in the metrics dump.
+    private static final AtomicLong SET_TEXT_HOOK_NANOS = TranslationMetrics.counter("settext_hook.nanos");
+    private static final AtomicLong SET_TEXT_HOOK_CALLS = TranslationMetrics.counter("settext_hook.calls");
 
     @Override
     public void handleLoadPackage(final XC_LoadPackage.LoadPackageParam lpparam) throws Throwable {
@@ -57,11 +94,23 @@ public class HookMain implements IXposedHookLoadPackage {
 
         String sourceLang = "auto";
         String targetLang = "zh-TW";
+        String providerOrder = MultiSegmentTranslateTask.DEFAULT_PROVIDER_ORDER;
+        // Bounded by the per-package HedgeBudget, so on by default.
+        boolean hedgeRequests = true;
+        boolean spanMarkup = true;
+        boolean templateNormalization = true;
+        // -1: derive from the refresh rate (see FrameBudget).
+        int syncFrameBudgetMs = -1;
 
         if (prefs.getFile().canRead()) {
             prefs.reload();
             sourceLang = prefs.getString("source_lang", sourceLang);
             targetLang = prefs.getString("target_lang", targetLang);
+            providerOrder = prefs.getString("provider_order", providerOrder);
+            hedgeRequests = prefs.getBoolean("hedge_requests", hedgeRequests);
+            spanMarkup = prefs.getBoolean("span_markup", spanMarkup);
+            templateNormalization = prefs.getBoolean("template_normalization", templateNormalization);
+            syncFrameBudgetMs = prefs.getInt("sync_frame_budget_ms", syncFrameBudgetMs);
 
             XposedBridge.log("sourceLang=" + sourceLang + ", targetLang=" + targetLang);
         } else {
@@ -72,11 +121,42 @@ public class HookMain implements IXposedHookLoadPackage {
         final String finalSourceLang = sourceLang;
         final String finalTargetLang = targetLang;
 
-        hookTextView(lpparam, finalSourceLang, finalTargetLang);
-        hookStaticLayout(lpparam, finalSourceLang, finalTargetLang);
-        hookAllCustomSetTextClasss(lpparam, finalSourceLang, finalTargetLang);
-        hookWebView(lpparam, finalSourceLang, finalTargetLang);
+        MultiSegmentTranslateTask.configureProviders(providerOrder, lpparam.packageName, hedgeRequests);
+        MultiSegmentTranslateTask.setSpanMarkupEnabled(spanMarkup);
+        MultiSegmentTranslateTask.setTemplateNormalizationEnabled(templateNormalization);
+        FrameBudget.setFrameBudgetMs(syncFrameBudgetMs);
+        // Per package: each hook closure captures its own, so a later handleLoadPackage in the
+        // same process can't swap the rules under hooks installed for an earlier package.
+        final SkipRules skipRules = SkipRules.forPackage(lpparam.packageName);
+
+        // Stage 1: core text hooks, needed before the first view binds its text.
+        runStage(lpparam.packageName, "core", () -> {
+            hookTextView(lpparam, skipRules, finalSourceLang, finalTargetLang);
+            hookScrollState(lpparam);
+            hookStaticLayout(lpparam, StaticLayoutBuilderFields.resolve(lpparam.classLoader), skipRules, finalSourceLang, finalTargetLang);
+            hookActivityCreate(lpparam, skipRules, finalSourceLang, finalTargetLang);
+            hookApplicationCreate(lpparam, skipRules, finalSourceLang, finalTargetLang);
+        });
+        // Stage 2: WebView hooks, once the app first loads WebView.
+        hookWebViewLazily(lpparam, finalSourceLang, finalTargetLang);
+        // Stage 3: custom setText classes, after the first frame (see hookActivityCreate),
+        // or after a delay in processes without an Activity (see hookApplicationCreate).
+    }
 
+    /** Install hooks and record how long it took, per package and stage. */
+    private static void runStage(String packageName, String stage, Runnable install) {
+        long startNs = System.nanoTime();
+        try {
+            install.run();
+        } catch (Throwable t) {
+            XposedBridge.log("[stage] " + stage + " failed => " + t);
+        }
+        long us = (System.nanoTime() - startNs) / 1000;
+        TranslationMetrics.counter("hook_stage." + stage + "_us").set(us);
+        XposedBridge.log(String.format(Locale.ROOT, "[stage] %s %s => %d.%03d ms", packageName, stage, us / 1000, us % 1000));
+    }
+
+    private void hookActivityCreate(XC_LoadPackage.LoadPackageParam lpparam, SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
         XposedHelpers.findAndHookMethod(
                 "android.app.Activity",
                 lpparam.classLoader,
@@ -87,21 +167,110 @@ public class HookMain implements IXposedHookLoadPackage {
                     protected void afterHookedMethod(MethodHookParam param) {
                         Activity activity = (Activity) param.thisObject;
                         Context context = activity.getApplicationContext();
+                        try {
+                            FrameBudget.setRefreshRate(activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+                        } catch (Throwable ignored) {
+                        }
 
                         XposedBridge.log("Context: " + context.getPackageName());
                         MultiSegmentTranslateTask.initDatabaseHelper(context);
+
+                        // First activity to draw (a trampoline may never draw): then find and hook
+                        // custom setText classes off the UI thread.
+                        ACTIVITY_CREATED.add(lpparam.packageName);
+                        if (!CUSTOM_SET_TEXT_STAGE_STARTED.contains(lpparam.packageName)) {
+                            try {
+                                runAfterFirstDraw(activity.getWindow().getDecorView(),
+                                        () -> startCustomSetTextStage(lpparam, skipRules, finalSourceLang, finalTargetLang));
+                            } catch (Throwable t) {
+                                XposedBridge.log("first draw trigger failed => " + t);
+                                startCustomSetTextStage(lpparam, skipRules, finalSourceLang, finalTargetLang);
+                            }
+                        }
+                    }
+                }
+        );
+    }
+
+    /** Fallback trigger for the custom setText stage in processes that never create an Activity. */
+    private void hookApplicationCreate(XC_LoadPackage.LoadPackageParam lpparam, SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
+        XposedHelpers.findAndHookMethod(
+                "android.app.Application",
+                lpparam.classLoader,
+                "onCreate",
+                new XC_MethodHook() {
+                    @Override
+                    protected void afterHookedMethod(MethodHookParam param) {
+                        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+                            if (!ACTIVITY_CREATED.contains(lpparam.packageName)) {
+                                startCustomSetTextStage(lpparam, skipRules, finalSourceLang, finalTargetLang);
+                            }
+                        }, CUSTOM_SET_TEXT_FALLBACK_DELAY_MS);
                     }
                 }
         );
     }
 
+    /**
+     * Run {@code action} on the main thread right after {@code decor} first draws.
+     * OnDrawListener fires just before the draw, so the action is posted behind it.
+     */
+    private static void runAfterFirstDraw(View decor, Runnable action) {
+        final ViewTreeObserver.OnDrawListener[] listener = new ViewTreeObserver.OnDrawListener[1];
+        final AtomicBoolean fired = new AtomicBoolean();
+        final Handler main = new Handler(Looper.getMainLooper());
+        listener[0] = () -> {
+            if (!fired.compareAndSet(false, true)) return;
+            main.post(() -> {
+                // Listeners can't be removed from inside onDraw.
+                decor.getViewTreeObserver().removeOnDrawListener(listener[0]);
+                action.run();
+            });
+        };
+        decor.getViewTreeObserver().addOnDrawListener(listener[0]);
+    }
+
+    /** Find and hook custom setText classes off the UI thread; only the package's first caller runs it. */
+    private void startCustomSetTextStage(XC_LoadPackage.LoadPackageParam lpparam, SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
+        if (!CUSTOM_SET_TEXT_STAGE_STARTED.add(lpparam.packageName)) return;
+        new Thread(() -> runStage(lpparam.packageName, "custom_settext",
+                () -> hookAllCustomSetTextClasss(lpparam, skipRules, finalSourceLang, finalTargetLang)),
+                "xptt-settext-scan").start();
+    }
+
+    /** Feed scroll/fling activity to {@link FrameBudget} so layouts built while scrolling never wait. */
+    private void hookScrollState(XC_LoadPackage.LoadPackageParam lpparam) {
+        try {
+            XposedHelpers.findAndHookMethod(
+                    "android.view.View",
+                    lpparam.classLoader,
+                    "onScrollChanged",
+                    int.class, int.class, int.class, int.class,
+                    new XC_MethodHook() {
+                        @Override
+                        protected void afterHookedMethod(MethodHookParam param) {
+                            FrameBudget.onScroll();
+                        }
+                    }
+            );
+        } catch (Throwable t) {
+            XposedBridge.log("hook View.onScrollChanged failed => " + t.getMessage());
+        }
+    }
+
     /**
      * Replace StaticLayout.Builder.build():
      * - Try synchronous replacement from memory/DB (no network, no blocking beyond local DB)
-     * - If unresolved, try quick local-service translation (background I/O + short await on UI)
+     * - If unresolved, try quick local-service translation (background I/O + short await on UI),
+     *   bounded by the per-frame {@link FrameBudget} and skipped while scrolling
      * - If still unresolved, prefetch async and return original layout
      */
-    private void hookStaticLayout(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang) {
+    private void hookStaticLayout(XC_LoadPackage.LoadPackageParam lpparam, StaticLayoutBuilderFields builderFields,
+                                  SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
+        if (!builderFields.isUsable()) {
+            XposedBridge.log("StaticLayout.Builder has no known text field => skip build() hook");
+            return;
+        }
         try {
             XposedHelpers.findAndHookMethod(
                     "android.text.StaticLayout$Builder",
@@ -118,16 +287,7 @@ public class HookMain implements IXposedHookLoadPackage {
 
                             try {
                                 // Read text from builder
-                                CharSequence text = null;
-                                try {
-                                    text = (CharSequence) XposedHelpers.getObjectField(builder, "mText");
-                                } catch (Throwable ignore) {
-                                    try {
-                                        text = (CharSequence) XposedHelpers.getObjectField(builder, "mSource");
-                                    } catch (Throwable ignore2) {
-                                        text = null;
-                                    }
-                                }
+                                CharSequence text = builderFields.getText(builder);
                                 if (text == null || text.length() == 0) {
                                     return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
                                 }
@@ -138,23 +298,30 @@ public class HookMain implements IXposedHookLoadPackage {
                                 }
 
                                 // Read start/end
-                                int start;
-                                int end;
-                                try {
-                                    start = XposedHelpers.getIntField(builder, "mStart");
-                                    end = XposedHelpers.getIntField(builder, "mEnd");
-                                } catch (Throwable ignore) {
-                                    start = 0;
-                                    end = text.length();
-                                }
+                                int start = builderFields.getStart(builder);
+                                int end = builderFields.getEnd(builder, text);
                                 if (start < 0) start = 0;
                                 if (end > text.length()) end = text.length();
                                 if (start >= end) {
                                     return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
                                 }
 
+                                // Our own translation being laid out again
+                                if (ProducedTranslations.isProduced(text, start, end)) {
+                                    return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
+                                }
+
+                                // Same text instance and range as an earlier build
+                                LayoutMemo memo = LAYOUT_MEMO.get(text);
+                                if (memo != null && memo.start == start && memo.end == end) {
+                                    builderFields.setText(builder, memo.translated);
+                                    LAYOUT_MEMO_HITS.incrementAndGet();
+                                    return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
+                                }
+                                LAYOUT_MEMO_MISSES.incrementAndGet();
+
                                 // Skip rule
-                                if (isTranslationSkippedForClass(lpparam.packageName, builder.getClass().getName())) {
+                                if (skipRules.shouldSkip(builder.getClass(), SkipRules.Hook.STATIC_LAYOUT, end - start)) {
                                     return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
                                 }
 
@@ -168,22 +335,35 @@ public class HookMain implements IXposedHookLoadPackage {
                                 // Build segments (preserve spans)
                                 List<Segment> segments;
                                 if (piece instanceof Spanned) {
-                                    segments = parseAllSegments((Spanned) piece);
+                                    segments = SpanSegmenter.segment((Spanned) piece);
                                 } else {
                                     segments = new ArrayList<>();
                                     segments.add(new Segment(0, piece.length(), piece.toString()));
                                 }
 
-                                // 1) memory/DB sync fast-path
-                                boolean allResolved = MultiSegmentTranslateTask.fillSegmentsFromCacheOrDbOrNoNeed(
+                                // 1) memory/DB sync fast-path (whole styled text first, then per segment)
+                                boolean allResolved = false;
+                                List<Segment> whole = MultiSegmentTranslateTask.wholeTextFromCacheOrDb(
                                         segments, finalSourceLang, finalTargetLang);
+                                if (whole != null) {
+                                    segments = whole;
+                                    allResolved = true;
+                                } else {
+                                    allResolved = MultiSegmentTranslateTask.fillSegmentsFromCacheOrDbOrNoNeed(
+                                            segments, finalSourceLang, finalTargetLang);
+                                }
 
-                                // 2) quick local-service sync (short wait) if not all resolved
+                                // 2) quick local-service sync if not all resolved, within this frame's budget
                                 if (!allResolved) {
-                                    boolean nowResolved = MultiSegmentTranslateTask.quickTranslateUnresolvedSegmentsViaLocal(
-                                            segments, finalSourceLang, finalTargetLang, 1000 /*ms*/);
-                                    if (nowResolved) {
-                                        allResolved = true;
+                                    long maxWaitMs = FrameBudget.acquire(
+                                            MultiSegmentTranslateTask.syncWaitBudgetMs(finalSourceLang, finalTargetLang));
+                                    // A wait the local server can't usually answer within only duplicates the prefetch below.
+                                    if (maxWaitMs > 0 && MultiSegmentTranslateTask.quickPathFits(
+                                            finalSourceLang, finalTargetLang, maxWaitMs)) {
+                                        long waitStart = System.nanoTime();
+                                        allResolved = MultiSegmentTranslateTask.quickTranslateUnresolvedSegmentsViaLocal(
+                                                segments, finalSourceLang, finalTargetLang, maxWaitMs);
+                                        FrameBudget.spend(System.nanoTime() - waitStart);
                                     }
                                 }
 
@@ -191,21 +371,13 @@ public class HookMain implements IXposedHookLoadPackage {
                                     // Replace builder text with translated spanned and build now
                                     CharSequence newSpanned = buildSpannedFromSegments(segments);
 
-                                    try {
-                                        XposedHelpers.setObjectField(builder, "mText", newSpanned);
-                                    } catch (Throwable ignore) {
-                                        try {
-                                            XposedHelpers.setObjectField(builder, "mSource", newSpanned);
-                                        } catch (Throwable ignore2) {
-                                            // Cannot write back; call through
-                                            return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
-                                        }
-                                    }
-                                    try {
-                                        XposedHelpers.setIntField(builder, "mStart", 0);
-                                        XposedHelpers.setIntField(builder, "mEnd", newSpanned.length());
-                                    } catch (Throwable ignore) {}
+                                    builderFields.setText(builder, newSpanned);
 
+                                    // Spannable text can gain or lose spans between builds; only memo immutable text.
+                                    if (!(text instanceof Spannable)) {
+                                        LAYOUT_MEMO.put(text, new LayoutMemo(start, end, newSpanned));
+                                    }
+                                    ProducedTranslations.record(newSpanned, piece);
                                     XposedBridge.log("[StaticLayout.Builder] applied translated text synchronously.");
                                     return XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
                                 } else {
@@ -225,7 +397,57 @@ public class HookMain implements IXposedHookLoadPackage {
         }
     }
 
+    /**
+     * Install the WebView hooks the first time the app loads the WebView provider
+     * (WebViewFactory.getProvider), so apps that never show a WebView don't pay for them.
+     */
+    private void hookWebViewLazily(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang) {
+        Class<?> factory = XposedHelpers.findClassIfExists("android.webkit.WebViewFactory", lpparam.classLoader);
+        Method getProvider = factory == null ? null : XposedHelpers.findMethodExactIfExists(factory, "getProvider");
+        if (getProvider == null) {
+            runStage(lpparam.packageName, "webview", () -> hookWebView(lpparam, finalSourceLang, finalTargetLang));
+            return;
+        }
+        final AtomicBoolean installed = new AtomicBoolean();
+        final XC_MethodHook.Unhook[] trigger = new XC_MethodHook.Unhook[1];
+        trigger[0] = XposedBridge.hookMethod(getProvider, new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) {
+                if (!installed.compareAndSet(false, true)) return;
+                runStage(lpparam.packageName, "webview", () -> hookWebView(lpparam, finalSourceLang, finalTargetLang));
+                if (trigger[0] != null) trigger[0].unhook();
+            }
+        });
+    }
+
+    private static void attachTranslationBridge(WebView webView) {
+        if (BRIDGED_WEBVIEWS.get(webView) != null) return;
+        BRIDGED_WEBVIEWS.put(webView, Boolean.TRUE);
+
+        XposedBridge.log("[WebView] => Adding JS Bridge for translation...");
+
+        WebView.setWebContentsDebuggingEnabled(true);
+        XposedBridge.log("[WebView] => WebContentsDebuggingEnabled set to true.");
+
+        webView.addJavascriptInterface(
+                new WebViewTranslationBridge(webView),
+                "XPTranslateTextBridge"
+        );
+    }
+
     private void hookWebView(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang) {
+        // The WebView that triggered getProvider is already being constructed when these hooks go in,
+        // so it misses the constructor hook; attaching before each load still reaches its first page.
+        XC_MethodHook beforeLoad = new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) {
+                attachTranslationBridge((WebView) param.thisObject);
+            }
+        };
+        for (String load : new String[]{"loadUrl", "loadData", "loadDataWithBaseURL", "postUrl"}) {
+            XposedBridge.hookAllMethods(WebView.class, load, beforeLoad);
+        }
+
         XposedHelpers.findAndHookConstructor(
                 "android.webkit.WebView",
                 lpparam.classLoader,
@@ -233,18 +455,7 @@ public class HookMain implements IXposedHookLoadPackage {
                 new XC_MethodHook() {
                     @Override
                     protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                        WebView webView = (WebView) param.thisObject;
-                        Context ctx = (Context) param.args[0];
-
-                        XposedBridge.log("[WebView Constructor] => Adding JS Bridge for translation...");
-
-                        WebView.setWebContentsDebuggingEnabled(true);
-                        XposedBridge.log("[WebView Constructor] => WebContentsDebuggingEnabled set to true.");
-
-                        webView.addJavascriptInterface(
-                                new WebViewTranslationBridge(webView),
-                                "XPTranslateTextBridge"
-                        );
+                        attachTranslationBridge((WebView) param.thisObject);
                     }
                 }
         );
@@ -265,6 +476,10 @@ public class HookMain implements IXposedHookLoadPackage {
 
                         XposedBridge.log("onPageFinished => " + url);
 
+                        // WebViews constructed before these hooks went in (or via other constructors)
+                        // get the bridge here; it is visible to pages loaded from now on.
+                        attachTranslationBridge(webView);
+
                         String jsCode = buildExtractTextJS(finalSourceLang, finalTargetLang);
 
                         webView.post(() -> {
@@ -275,7 +490,7 @@ public class HookMain implements IXposedHookLoadPackage {
         );
     }
 
-    private void hookTextView(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang) {
+    private void hookTextView(XC_LoadPackage.LoadPackageParam lpparam, SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
         XposedHelpers.findAndHookMethod(
                 "android.widget.TextView",
                 lpparam.classLoader,
@@ -287,6 +502,16 @@ public class HookMain implements IXposedHookLoadPackage {
                 new XC_MethodHook() {
                     @Override
                     protected void beforeHookedMethod(MethodHookParam param) {
+                        long startNanos = System.nanoTime();
+                        try {
+                            onSetText(param);
+                        } finally {
+                            SET_TEXT_HOOK_NANOS.addAndGet(System.nanoTime() - startNanos);
+                            SET_TEXT_HOOK_CALLS.incrementAndGet();
+                        }
+                    }
+
+                    private void onSetText(MethodHookParam param) {
                         CharSequence originalText = (CharSequence) param.args[0];
 
                         if (originalText == null || originalText.length() == 0) {
@@ -308,19 +533,21 @@ public class HookMain implements IXposedHookLoadPackage {
                         } catch (Throwable ignored) {
                         }
 
+                        if (ProducedTranslations.isProduced(originalText)) {
+                            return;
+                        }
+
                         XposedBridge.log(String.format("[ translate ] %s string => %s", param.thisObject.getClass(), originalText));
 
-                        if (isTranslationSkippedForClass(lpparam.packageName, param.thisObject.getClass().getName())) {
+                        if (skipRules.shouldSkip(param.thisObject.getClass(), SkipRules.Hook.TEXT_VIEW, originalText.length())) {
                             return;
                         }
 
-                        int translationId = atomicIdGenerator.getAndIncrement();
-                        Object target = param.thisObject;
-                        markTranslationId(target, translationId);
+                        int translationId = TranslationTokens.next(param.thisObject);
 
                         List<Segment> segments;
                         if (originalText instanceof Spanned) {
-                            segments = parseAllSegments((Spanned) originalText);
+                            segments = SpanSegmenter.segment((Spanned) originalText);
                         } else {
                             segments = new ArrayList<>();
                             segments.add(new Segment(0, originalText.length(), originalText.toString()));
@@ -339,7 +566,94 @@ public class HookMain implements IXposedHookLoadPackage {
         );
     }
 
-    private void hookAllCustomSetTextClasss(XC_LoadPackage.LoadPackageParam lpparam, String finalSourceLang, String finalTargetLang) {
+    /**
+     * Hook setText(CharSequence|String) on every app class that declares one. The class
+     * list comes from {@link SetTextClassIndex}; a missing or stale index is rebuilt by a
+     * dex scan. Runs on a background thread after the first frame.
+     */
+    private void hookAllCustomSetTextClasss(XC_LoadPackage.LoadPackageParam lpparam, SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
+        SetTextClassIndex index = SetTextClassIndex.forApp(lpparam.appInfo);
+        List<String> classNames = index.load();
+        if (classNames == null) {
+            classNames = scanSetTextClasses(lpparam);
+            if (classNames == null) {
+                return;
+            }
+            index.save(classNames);
+        }
+        hookCustomSetTextClasses(lpparam, classNames, skipRules, finalSourceLang, finalTargetLang);
+    }
+
+    private void hookCustomSetTextClasses(XC_LoadPackage.LoadPackageParam lpparam, List<String> classNames,
+                                          SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
+        XC_MethodHook setTextHook = customSetTextHook(skipRules, finalSourceLang, finalTargetLang);
+        for (String className : classNames) {
+            try {
+                // Checked on the Class so the result lands in the memo the hook consults.
+                Class<?> clazz = lpparam.classLoader.loadClass(className);
+                if (skipRules.alwaysSkips(clazz, SkipRules.Hook.CUSTOM_SET_TEXT)) {
+                    continue;
+                }
+                for (Method method : declaredSetTextMethods(clazz)) {
+                    XposedBridge.hookMethod(method, setTextHook);
+                    XposedBridge.log(String.format("Hook custom setText class => [%s] ", className));
+                }
+            } catch (Throwable e) {
+                XposedBridge.log(String.format("Hook custom setText failed class => [%s]", className));
+            }
+        }
+    }
+
+    /**
+     * Find the non-TextView classes declaring setText. The dex files are parsed directly
+     * and only the matches are loaded; loading every class is the fallback when the APK
+     * has no readable dex (pre-optimized system apps).
+     *
+     * @return class names, or null when nothing could be scanned
+     */
+    private List<String> scanSetTextClasses(XC_LoadPackage.LoadPackageParam lpparam) {
+        List<String> candidates = null;
+        long startNs = System.nanoTime();
+        try {
+            candidates = DexSetTextScanner.scanApks(apkPaths(lpparam.appInfo));
+        } catch (Throwable t) {
+            XposedBridge.log("Dex parse error => " + t + ", falling back to loading classes");
+        }
+        if (candidates == null) {
+            return scanSetTextClassesByLoading(lpparam);
+        }
+
+        List<String> found = new ArrayList<>();
+        for (String className : candidates) {
+            try {
+                Class<?> clazz = lpparam.classLoader.loadClass(className);
+                if (!TextView.class.isAssignableFrom(clazz) && !declaredSetTextMethods(clazz).isEmpty()) {
+                    found.add(className);
+                }
+            } catch (Throwable e) {
+                XposedBridge.log(String.format("Scan custom setText failed class => [%s]", className));
+            }
+        }
+        XposedBridge.log(String.format(Locale.ROOT, "setText dex scan => %d candidates, %d classes in %d ms",
+                candidates.size(), found.size(), (System.nanoTime() - startNs) / 1_000_000));
+        return found;
+    }
+
+    private static List<String> apkPaths(ApplicationInfo appInfo) {
+        List<String> paths = new ArrayList<>();
+        if (appInfo == null) return paths;
+        if (appInfo.sourceDir != null) paths.add(appInfo.sourceDir);
+        if (appInfo.splitSourceDirs != null) {
+            for (String split : appInfo.splitSourceDirs) {
+                if (split != null) paths.add(split);
+            }
+        }
+        return paths;
+    }
+
+    /** Load every class of the app and collect the non-TextView ones declaring setText. */
+    private List<String> scanSetTextClassesByLoading(XC_LoadPackage.LoadPackageParam lpparam) {
+        List<String> found = new ArrayList<>();
         try {
             Field pathListField = XposedHelpers.findField(lpparam.classLoader.getClass(), "pathList");
             Object pathList = pathListField.get(lpparam.classLoader);
@@ -374,80 +688,89 @@ public class HookMain implements IXposedHookLoadPackage {
                             continue;
                         }
 
-                        if (isTranslationSkippedForClass(lpparam.packageName, className)) {
-                            continue;
-                        }
-
-                        for (final Method method : clazz.getDeclaredMethods()) {
-                            if (!method.getName().equals("setText")) {
-                                continue;
-                            }
-                            Class<?>[] pTypes = method.getParameterTypes();
-                            if (pTypes.length == 1 && (pTypes[0] == CharSequence.class || pTypes[0] == String.class)) {
-
-                                XposedBridge.hookMethod(method, new XC_MethodHook() {
-                                    @Override
-                                    protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                                        CharSequence originalText = (CharSequence) param.args[0];
-                                        if (originalText == null || originalText.length() == 0) {
-                                            return;
-                                        }
-
-                                        // Skip editable content to avoid altering user input.
-                                        try {
-                                            if (originalText instanceof Editable) {
-                                                return;
-                                            }
-                                            // If the target object exposes an isEditable() method and returns true, skip.
-                                            Method isEditable = XposedHelpers.findMethodExactIfExists(param.thisObject.getClass(), "isEditable");
-                                            if (isEditable != null) {
-                                                Object res = XposedHelpers.callMethod(param.thisObject, "isEditable");
-                                                if (res instanceof Boolean && ((Boolean) res)) {
-                                                    return;
-                                                }
-                                            }
-                                        } catch (Throwable ignored) {
-                                        }
-
-                                        XposedBridge.log(String.format("[ translate ] %s string => %s", param.thisObject.getClass(), originalText));
-
-                                        int translationId = atomicIdGenerator.getAndIncrement();
-                                        markTranslationId(param.thisObject, translationId);
-
-                                        List<Segment> segments;
-                                        if (originalText instanceof Spanned) {
-                                            segments = parseAllSegments((Spanned) originalText);
-                                        } else {
-                                            segments = new ArrayList<>();
-                                            segments.add(new Segment(0, originalText.length(), originalText.toString()));
-                                        }
-
-                                        MultiSegmentTranslateTask.translateSegmentsAsync(
-                                                param,
-                                                translationId,
-                                                segments,
-                                                finalSourceLang,
-                                                finalTargetLang
-                                        );
-                                    }
-                                });
-                                XposedBridge.log(String.format("Hook custom setText class => [%s] ", className));
-                            }
+                        if (!declaredSetTextMethods(clazz).isEmpty()) {
+                            found.add(className);
                         }
                     } catch (Throwable e) {
-                        XposedBridge.log(String.format("Hook custom setText failed class => [%s]", className));
+                        XposedBridge.log(String.format("Scan custom setText failed class => [%s]", className));
                     }
                 }
             }
         } catch (Exception e) {
             XposedBridge.log("Enumerate Dex error => " + e.getMessage());
+            return null;
         }
+        XposedBridge.log("setText class scan => " + found.size() + " classes");
+        return found;
     }
 
-    private boolean isTranslationSkippedForClass(String packageName, String className) {
-        return switch (packageName) {
-            case "org.telegram.messenger" -> Telegram.shouldSkipClass(className);
-            default -> false;
+    private static List<Method> declaredSetTextMethods(Class<?> clazz) {
+        List<Method> methods = new ArrayList<>(1);
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (!method.getName().equals("setText")) {
+                continue;
+            }
+            Class<?>[] pTypes = method.getParameterTypes();
+            if (pTypes.length == 1 && (pTypes[0] == CharSequence.class || pTypes[0] == String.class)) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    private XC_MethodHook customSetTextHook(SkipRules skipRules, String finalSourceLang, String finalTargetLang) {
+        return new XC_MethodHook() {
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                CharSequence originalText = (CharSequence) param.args[0];
+                if (originalText == null || originalText.length() == 0) {
+                    return;
+                }
+
+                // Skip editable content to avoid altering user input.
+                try {
+                    if (originalText instanceof Editable) {
+                        return;
+                    }
+                    // If the target object exposes an isEditable() method and returns true, skip.
+                    Method isEditable = XposedHelpers.findMethodExactIfExists(param.thisObject.getClass(), "isEditable");
+                    if (isEditable != null) {
+                        Object res = XposedHelpers.callMethod(param.thisObject, "isEditable");
+                        if (res instanceof Boolean && ((Boolean) res)) {
+                            return;
+                        }
+                    }
+                } catch (Throwable ignored) {
+                }
+
+                if (ProducedTranslations.isProduced(originalText)) {
+                    return;
+                }
+
+                if (skipRules.shouldSkip(param.thisObject.getClass(), SkipRules.Hook.CUSTOM_SET_TEXT, originalText.length())) {
+                    return;
+                }
+
+                XposedBridge.log(String.format("[ translate ] %s string => %s", param.thisObject.getClass(), originalText));
+
+                int translationId = TranslationTokens.next(param.thisObject);
+
+                List<Segment> segments;
+                if (originalText instanceof Spanned) {
+                    segments = SpanSegmenter.segment((Spanned) originalText);
+                } else {
+                    segments = new ArrayList<>();
+                    segments.add(new Segment(0, originalText.length(), originalText.toString()));
+                }
+
+                MultiSegmentTranslateTask.translateSegmentsAsync(
+                        param,
+                        translationId,
+                        segments,
+                        finalSourceLang,
+                        finalTargetLang
+                );
+            }
         };
     }
 
@@ -463,6 +786,7 @@ public class HookMain implements IXposedHookLoadPackage {
             // Only apply for setText-like methods that take arguments and update View state
             if (param.args != null && param.args.length >= 1) {
                 // e.g. TextView.setText(...) or custom setText(CharSequence)
+                ProducedTranslations.record(newSpanned, (CharSequence) param.args[0]);
                 param.args[0] = newSpanned; // apply translated text
                 XposedBridge.invokeOriginalMethod(param.method, param.thisObject, param.args);
             } else {
@@ -478,79 +802,6 @@ public class HookMain implements IXposedHookLoadPackage {
         }
     }
 
-    private static void markTranslationId(Object target, int translationId) {
-        try {
-            XposedHelpers.setAdditionalInstanceField(target, TRANSLATION_ID_KEY, translationId);
-        } catch (Throwable ignored) {
-        }
-        try {
-            Method setTag = XposedHelpers.findMethodExactIfExists(target.getClass(), "setTag", Object.class);
-            if (setTag != null) {
-                XposedHelpers.callMethod(target, "setTag", translationId);
-            }
-        } catch (Throwable ignored) {
-        }
-    }
-
-    private static List<Segment> parseAllSegments(Spanned spanned) {
-        List<Segment> segments = new ArrayList<>();
-        int textLen = spanned.length();
-        if (textLen == 0) {
-            return segments;
-        }
-
-        // 1) collect all spans
-        Object[] allSpans = spanned.getSpans(0, textLen, Object.class);
-
-        // 2) gather boundaries and add 0, textLen
-        Set<Integer> boundarySet = new HashSet<>();
-        boundarySet.add(0);
-        boundarySet.add(textLen);
-
-        for (Object span : allSpans) {
-            int st = spanned.getSpanStart(span);
-            int en = spanned.getSpanEnd(span);
-            boundarySet.add(st);
-            boundarySet.add(en);
-        }
-
-        // 3) sort boundaries
-        List<Integer> boundaries = new ArrayList<>(boundarySet);
-        Collections.sort(boundaries);
-
-        // 4) build segments by [i, i+1)
-        for (int i = 0; i < boundaries.size() - 1; i++) {
-            int segStart = boundaries.get(i);
-            int segEnd = boundaries.get(i + 1);
-            if (segStart >= segEnd) {
-                continue;
-            }
-
-            CharSequence sub = spanned.subSequence(segStart, segEnd);
-            Segment seg = new Segment(segStart, segEnd, sub.toString());
-
-            // find all spans intersect with [segStart, segEnd)
-            for (Object span : allSpans) {
-                int spanStart = spanned.getSpanStart(span);
-                int spanEnd = spanned.getSpanEnd(span);
-                int flags = spanned.getSpanFlags(span);
-
-                int intersectStart = Math.max(spanStart, segStart);
-                int intersectEnd = Math.min(spanEnd, segEnd);
-
-                if (intersectStart < intersectEnd) {
-                    int relativeStart = intersectStart - segStart;
-                    int relativeEnd = intersectEnd - segStart;
-                    seg.spans.add(new SpanSpec(span, relativeStart, relativeEnd, flags));
-                }
-            }
-
-            segments.add(seg);
-        }
-
-        return segments;
-    }
-
     private static CharSequence buildSpannedFromSegments(List<Segment> segments) {
         SpannableStringBuilder ssb = new SpannableStringBuilder();
 
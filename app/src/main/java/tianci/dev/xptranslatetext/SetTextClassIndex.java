@@ -0,0 +1,100 @@
+package tianci.dev.xptranslatetext;
+
+import android.content.pm.ApplicationInfo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Persistent list of the app's classes that declare {@code setText(CharSequence|String)},
+ * stored in the app's cache dir and keyed by APK path, version code and APK mtime, so
+ * only the first launch after an install or update has to scan every dex entry.
+ */
+final class SetTextClassIndex {
+    private static final String FORMAT = "v1";
+    private static final String FILE_NAME = "xp_translate_text_settext.idx";
+
+    private final File file;
+    private final String key;
+
+    private SetTextClassIndex(File file, String key) {
+        this.file = file;
+        this.key = key;
+    }
+
+    static SetTextClassIndex forApp(ApplicationInfo appInfo) {
+        if (appInfo == null || appInfo.sourceDir == null || appInfo.dataDir == null) {
+            return new SetTextClassIndex(null, null);
+        }
+        String key = FORMAT + "|" + appInfo.sourceDir + "|" + versionCode(appInfo)
+                + "|" + new File(appInfo.sourceDir).lastModified();
+        return new SetTextClassIndex(new File(new File(appInfo.dataDir, "cache"), FILE_NAME), key);
+    }
+
+    // Hidden fields: longVersionCode on P+, versionCode before.
+    private static long versionCode(ApplicationInfo appInfo) {
+        for (String name : new String[]{"longVersionCode", "versionCode"}) {
+            Field f = XposedHelpers.findFieldIfExists(appInfo.getClass(), name);
+            if (f == null) continue;
+            try {
+                return ((Number) f.get(appInfo)).longValue();
+            } catch (Throwable ignored) {
+            }
+        }
+        return -1;
+    }
+
+    /** @return the indexed class names, or null when there is no index for this APK build */
+    List<String> load() {
+        if (file == null || !file.isFile()) return null;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!key.equals(r.readLine())) {
+                XposedBridge.log("setText class index is stale => rescan");
+                return null;
+            }
+            List<String> classNames = new ArrayList<>();
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!line.isEmpty()) classNames.add(line);
+            }
+            return classNames;
+        } catch (Exception e) {
+            XposedBridge.log("setText class index read error => " + e);
+            return null;
+        }
+    }
+
+    void save(List<String> classNames) {
+        if (file == null) return;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            w.write(key);
+            w.write('\n');
+            for (String name : classNames) {
+                w.write(name);
+                w.write('\n');
+            }
+        } catch (Exception e) {
+            XposedBridge.log("setText class index write error => " + e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+}
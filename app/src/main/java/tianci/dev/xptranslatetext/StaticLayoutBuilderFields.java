@@ -0,0 +1,75 @@
+package tianci.dev.xptranslatetext;
+
+import java.lang.reflect.Field;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Field layout of {@code android.text.StaticLayout$Builder}, resolved once per process
+ * so the build() hook reads and writes the text and range through cached handles
+ * instead of name lookups and exception-driven fallbacks on every layout.
+ */
+final class StaticLayoutBuilderFields {
+    private static final String BUILDER_CLASS = "android.text.StaticLayout$Builder";
+
+    /** The text lives in {@code mText} (most versions) or {@code mSource}; null if neither exists. */
+    private final Field textField;
+    private final Field startField;
+    private final Field endField;
+    /** Strategy flag: false when mStart/mEnd are missing and the whole text is the range. */
+    private final boolean hasRange;
+
+    private StaticLayoutBuilderFields(Field textField, Field startField, Field endField) {
+        this.textField = textField;
+        this.startField = startField;
+        this.endField = endField;
+        this.hasRange = startField != null && endField != null
+                && startField.getType() == int.class && endField.getType() == int.class;
+    }
+
+    static StaticLayoutBuilderFields resolve(ClassLoader classLoader) {
+        Class<?> builderClass = XposedHelpers.findClassIfExists(BUILDER_CLASS, classLoader);
+        if (builderClass == null) {
+            return new StaticLayoutBuilderFields(null, null, null);
+        }
+        Field text = textField(builderClass, "mText");
+        if (text == null) text = textField(builderClass, "mSource");
+        StaticLayoutBuilderFields fields = new StaticLayoutBuilderFields(text,
+                XposedHelpers.findFieldIfExists(builderClass, "mStart"),
+                XposedHelpers.findFieldIfExists(builderClass, "mEnd"));
+        XposedBridge.log("StaticLayout.Builder fields => text=" + (text == null ? "none" : text.getName())
+                + ", range=" + fields.hasRange);
+        return fields;
+    }
+
+    private static Field textField(Class<?> builderClass, String name) {
+        Field f = XposedHelpers.findFieldIfExists(builderClass, name);
+        return f != null && CharSequence.class.isAssignableFrom(f.getType()) ? f : null;
+    }
+
+    boolean isUsable() {
+        return textField != null;
+    }
+
+    CharSequence getText(Object builder) throws IllegalAccessException {
+        return (CharSequence) textField.get(builder);
+    }
+
+    int getStart(Object builder) throws IllegalAccessException {
+        return hasRange ? startField.getInt(builder) : 0;
+    }
+
+    int getEnd(Object builder, CharSequence text) throws IllegalAccessException {
+        return hasRange ? endField.getInt(builder) : text.length();
+    }
+
+    /** Point the builder at {@code newText}, resetting the range to cover all of it. */
+    void setText(Object builder, CharSequence newText) throws IllegalAccessException {
+        textField.set(builder, newText);
+        if (hasRange) {
+            startField.setInt(builder, 0);
+            endField.setInt(builder, newText.length());
+        }
+    }
+}
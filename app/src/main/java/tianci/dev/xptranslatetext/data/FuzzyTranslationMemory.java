@@ -0,0 +1,195 @@
+package tianci.dev.xptranslatetext.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory approximate-match index over short cached source texts, so UI strings that
+ * differ from a cached one only in punctuation, casing, whitespace or a small edit can
+ * reuse its translation. Sources are normalized and indexed by character trigrams;
+ * a lookup scores candidates by Dice similarity and gives up once its time budget is
+ * spent.
+ */
+public final class FuzzyTranslationMemory {
+    /** Longer sources are not indexed: a near match on a sentence is too often wrong. */
+    public static final int MAX_SOURCE_CHARS = 64;
+    private static final int MIN_NORMALIZED_CHARS = 6;
+    // When a language pair fills up, its index starts over.
+    private static final int MAX_ENTRIES_PER_PAIR = 4096;
+    private static final int DEADLINE_CHECK_INTERVAL = 32;
+    private static final int[] EMPTY_POSTINGS = {0};
+
+    private final double threshold;
+    private final long budgetNanos;
+    private final Map<String, Index> indexes = new HashMap<>();
+
+    private static final class Entry {
+        final int[] grams;
+        final String translation;
+
+        Entry(int[] grams, String translation) {
+            this.grams = grams;
+            this.translation = translation;
+        }
+    }
+
+    private static final class Index {
+        final List<Entry> entries = new ArrayList<>();
+        final Map<String, Integer> byNormalized = new HashMap<>();
+        final Map<Integer, int[]> postings = new HashMap<>(); // gram -> [size, id, id, ...]
+        final boolean[] seen = new boolean[MAX_ENTRIES_PER_PAIR];
+        final int[] touched = new int[MAX_ENTRIES_PER_PAIR];
+    }
+
+    /**
+     * @param threshold   minimum Dice similarity of the trigram sets, 0..1
+     * @param budgetMicros time a single lookup may take before it reports no match
+     */
+    public FuzzyTranslationMemory(double threshold, long budgetMicros) {
+        this.threshold = threshold;
+        this.budgetNanos = budgetMicros * 1000;
+    }
+
+    /** Index {@code source} -> {@code translation} under a language pair such as "en:zh-TW". */
+    public void add(String langPair, String source, String translation) {
+        if (source == null || translation == null || source.length() > MAX_SOURCE_CHARS) return;
+        String normalized = normalize(source);
+        if (normalized.length() < MIN_NORMALIZED_CHARS) return;
+        int[] grams = grams(normalized);
+        synchronized (indexes) {
+            Index index = indexes.get(langPair);
+            if (index == null || index.entries.size() >= MAX_ENTRIES_PER_PAIR) {
+                index = new Index();
+                indexes.put(langPair, index);
+            }
+            Integer existing = index.byNormalized.get(normalized);
+            if (existing != null) {
+                index.entries.set(existing, new Entry(grams, translation));
+                return;
+            }
+            int id = index.entries.size();
+            index.entries.add(new Entry(grams, translation));
+            index.byNormalized.put(normalized, id);
+            for (int g : grams) {
+                int[] list = index.postings.get(g);
+                if (list == null) {
+                    list = new int[4];
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                }
+                list[++list[0]] = id;
+                index.postings.put(g, list);
+            }
+        }
+    }
+
+    /**
+     * @return the translation of the most similar indexed source at or above the
+     * threshold, or null when there is none or the lookup ran out of time
+     */
+    public String lookup(String langPair, String source) {
+        if (source == null || source.length() > MAX_SOURCE_CHARS) return null;
+        long deadline = System.nanoTime() + budgetNanos;
+        String normalized = normalize(source);
+        if (normalized.length() < MIN_NORMALIZED_CHARS) return null;
+        synchronized (indexes) {
+            Index index = indexes.get(langPair);
+            if (index == null) return null;
+            Integer same = index.byNormalized.get(normalized);
+            if (same != null) return index.entries.get(same).translation;
+
+            int[] grams = grams(normalized);
+            // A match shares at least t*|q|/(2-t) grams with the query, so it must contain one
+            // of the |q| - minShared + 1 rarest query grams: only those postings are scanned.
+            int minShared = (int) Math.ceil(threshold * grams.length / (2 - threshold));
+            int[][] lists = new int[grams.length][];
+            for (int i = 0; i < grams.length; i++) {
+                int[] list = index.postings.get(grams[i]);
+                lists[i] = list != null ? list : EMPTY_POSTINGS;
+            }
+            Arrays.sort(lists, (x, y) -> Integer.compare(x[0], y[0]));
+            int probe = Math.max(1, grams.length - minShared + 1);
+
+            String best = null;
+            double bestScore = threshold;
+            int checked = 0;
+            int touchedCount = 0;
+            try {
+                for (int l = 0; l < probe && l < lists.length; l++) {
+                    int[] list = lists[l];
+                    for (int i = 1; i <= list[0]; i++) {
+                        int id = list[i];
+                        if (index.seen[id]) continue;
+                        index.seen[id] = true;
+                        index.touched[touchedCount++] = id;
+                        Entry e = index.entries.get(id);
+                        double score = 2.0 * shared(grams, e.grams) / (grams.length + e.grams.length);
+                        if (score >= bestScore) {
+                            bestScore = score;
+                            best = e.translation;
+                        }
+                        if (++checked % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                            return null;
+                        }
+                    }
+                }
+                return best;
+            } finally {
+                for (int i = 0; i < touchedCount; i++) {
+                    index.seen[index.touched[i]] = false;
+                }
+            }
+        }
+    }
+
+    private static int shared(int[] a, int[] b) {
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                n++;
+                i++;
+                j++;
+            }
+        }
+        return n;
+    }
+
+    /** Lowercase, letters and digits only, single spaces between words. */
+    static String normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        String lower = s.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0) sb.append(' ');
+                sb.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Distinct trigram hashes of " " + s + " ", sorted. */
+    static int[] grams(String s) {
+        String padded = " " + s + " ";
+        int[] grams = new int[Math.max(1, padded.length() - 2)];
+        for (int i = 0; i + 2 < padded.length(); i++) {
+            grams[i] = (padded.charAt(i) * 31 + padded.charAt(i + 1)) * 31 + padded.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int n = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) grams[n++] = grams[i];
+        }
+        return Arrays.copyOf(grams, n);
+    }
+}
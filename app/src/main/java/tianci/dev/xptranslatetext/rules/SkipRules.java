@@ -0,0 +1,207 @@
+package tianci.dev.xptranslatetext.rules;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import de.robv.android.xposed.XposedBridge;
+import tianci.dev.xptranslatetext.util.WeakIdentityMap;
+
+/**
+ * Per-app rules for classes whose text should not be translated, loaded from the
+ * module's {@code assets/skip_rules.json}:
+ *
+ * <pre>
+ * { "org.telegram.messenger": [
+ *     { "prefix": "org.telegram.ui.ActionBar.AlertDialog" },
+ *     { "exact": "a.b.C", "hooks": ["custom_set_text"], "minLength": 3 } ] }
+ * </pre>
+ *
+ * A rule matches a class by name prefix or exact name (neither: every class), can be
+ * limited to some {@link Hook}s, and with {@code minLength} skips only texts shorter
+ * than that. Rules are compiled into a prefix trie and the outcome is memoized per
+ * {@code Class}, so a check on the hot path is one identity-map hit.
+ */
+public final class SkipRules {
+
+    public enum Hook {
+        TEXT_VIEW("text_view"),
+        STATIC_LAYOUT("static_layout"),
+        CUSTOM_SET_TEXT("custom_set_text");
+
+        final String configName;
+
+        Hook(String configName) {
+            this.configName = configName;
+        }
+    }
+
+    private static final String CONFIG_RESOURCE = "assets/skip_rules.json";
+    // Per hook: skip texts shorter than this. 0 = never skip, MAX_VALUE = always skip.
+    private static final int[] NO_SKIP = new int[Hook.values().length];
+
+    private static volatile JSONObject config;
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    // Children in parallel arrays sorted by char, found by binary search without boxing.
+    private static final class Node {
+        char[] keys = NO_CHARS;
+        Node[] children = NO_NODES;
+        int[] prefixSkip;
+        int[] exactSkip;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node childOrAdd(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) return children[i];
+            int at = -i - 1;
+            char[] k = new char[keys.length + 1];
+            Node[] n = new Node[children.length + 1];
+            System.arraycopy(keys, 0, k, 0, at);
+            System.arraycopy(children, 0, n, 0, at);
+            System.arraycopy(keys, at, k, at + 1, keys.length - at);
+            System.arraycopy(children, at, n, at + 1, children.length - at);
+            k[at] = c;
+            n[at] = new Node();
+            keys = k;
+            children = n;
+            return n[at];
+        }
+    }
+
+    private final Node root = new Node();
+    private final int[] packageSkip;
+    private final boolean empty;
+    private final WeakIdentityMap<Class<?>, int[]> byClass = new WeakIdentityMap<>();
+
+    SkipRules(JSONArray rules) {
+        int[] all = NO_SKIP;
+        boolean any = false;
+        for (int i = 0; rules != null && i < rules.length(); i++) {
+            JSONObject rule = rules.optJSONObject(i);
+            if (rule == null) continue;
+            int[] skip = skipOf(rule);
+            String prefix = rule.optString("prefix", null);
+            String exact = rule.optString("exact", null);
+            if (prefix != null) {
+                Node n = nodeFor(prefix);
+                n.prefixSkip = merge(n.prefixSkip, skip);
+            } else if (exact != null) {
+                Node n = nodeFor(exact);
+                n.exactSkip = merge(n.exactSkip, skip);
+            } else {
+                all = merge(all, skip);
+            }
+            any = true;
+        }
+        this.packageSkip = all;
+        this.empty = !any;
+    }
+
+    /** Compiled rules for {@code packageName}; no rules when it has none or the config can't be read. */
+    public static SkipRules forPackage(String packageName) {
+        JSONObject cfg = loadConfig();
+        SkipRules rules = new SkipRules(cfg == null ? null : cfg.optJSONArray(packageName));
+        if (!rules.empty) {
+            XposedBridge.log("skip rules loaded for " + packageName);
+        }
+        return rules;
+    }
+
+    public boolean shouldSkip(Class<?> cls, Hook hook, int textLength) {
+        return !empty && textLength < skipFor(cls)[hook.ordinal()];
+    }
+
+    /** Whether {@code cls} is skipped for every text, so hooking it is pointless. */
+    public boolean alwaysSkips(Class<?> cls, Hook hook) {
+        return !empty && skipFor(cls)[hook.ordinal()] == Integer.MAX_VALUE;
+    }
+
+    private int[] skipFor(Class<?> cls) {
+        int[] skip = byClass.get(cls);
+        if (skip == null) {
+            skip = resolve(cls.getName());
+            byClass.put(cls, skip);
+        }
+        return skip;
+    }
+
+    private int[] resolve(String className) {
+        int[] skip = packageSkip;
+        Node n = root;
+        for (int i = 0; i < className.length() && n != null; i++) {
+            if (n.prefixSkip != null) skip = merge(skip, n.prefixSkip);
+            n = n.child(className.charAt(i));
+        }
+        if (n != null) {
+            if (n.prefixSkip != null) skip = merge(skip, n.prefixSkip);
+            if (n.exactSkip != null) skip = merge(skip, n.exactSkip);
+        }
+        return skip;
+    }
+
+    private Node nodeFor(String key) {
+        Node n = root;
+        for (int i = 0; i < key.length(); i++) {
+            n = n.childOrAdd(key.charAt(i));
+        }
+        return n;
+    }
+
+    private static int[] skipOf(JSONObject rule) {
+        int threshold = rule.has("minLength") ? rule.optInt("minLength", 0) : Integer.MAX_VALUE;
+        int[] skip = new int[Hook.values().length];
+        JSONArray hooks = rule.optJSONArray("hooks");
+        if (hooks == null) {
+            Arrays.fill(skip, threshold);
+            return skip;
+        }
+        for (int i = 0; i < hooks.length(); i++) {
+            String name = hooks.optString(i, "");
+            for (Hook h : Hook.values()) {
+                if (h.configName.equals(name)) skip[h.ordinal()] = threshold;
+            }
+        }
+        return skip;
+    }
+
+    // Several matching rules: the strictest threshold wins.
+    private static int[] merge(int[] a, int[] b) {
+        if (a == null) return b;
+        int[] out = new int[a.length];
+        for (int i = 0; i < a.length; i++) out[i] = Math.max(a[i], b[i]);
+        return out;
+    }
+
+    private static JSONObject loadConfig() {
+        JSONObject cfg = config;
+        if (cfg != null) return cfg;
+        // The module APK is on this class's loader, assets included.
+        try (InputStream in = SkipRules.class.getClassLoader().getResourceAsStream(CONFIG_RESOURCE)) {
+            if (in == null) {
+                XposedBridge.log("skip rules => " + CONFIG_RESOURCE + " not found");
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+            cfg = new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            config = cfg;
+            return cfg;
+        } catch (Exception e) {
+            XposedBridge.log("skip rules load error => " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tianci.dev.xptranslatetext.util.WeakIdentityMap;
+
+/**
+ * Detects text that is being built up in place (streamed chat or assistant replies that
+ * call setText with ever longer prefixes of one message). Such text is translated per
+ * sentence: finished sentences hit the cache after their first translation, and only
+ * the still-changing last sentence is translated, once it stops changing.
+ */
+final class GrowingText {
+    /** How long the unfinished last sentence must stay unchanged before it is translated. */
+    static final long TAIL_DEBOUNCE_MS = 400;
+
+    private static final WeakIdentityMap<Object, String> LAST_SOURCE = new WeakIdentityMap<>();
+    private static final AtomicLong GROWING = TranslationMetrics.counter("growing_text.detected");
+
+    private GrowingText() {
+    }
+
+    /**
+     * Remember the text set on {@code target}.
+     *
+     * @return its sentence pieces (with their trailing whitespace) if it extends the
+     * previous text of the target by at least one more finished sentence, else null;
+     * counters and other in-place edits ("1" -> "10") don't qualify
+     */
+    static List<Segment> sentencesIfGrowing(Object target, List<Segment> segments, String srcLang) {
+        if (segments.size() != 1 || !segments.get(0).spans.isEmpty()) {
+            LAST_SOURCE.remove(target);
+            return null;
+        }
+        Segment seg = segments.get(0);
+        String previous = LAST_SOURCE.get(target);
+        LAST_SOURCE.put(target, seg.text);
+        if (previous == null || previous.isEmpty() || seg.text.length() <= previous.length()
+                || !seg.text.startsWith(previous)) {
+            return null;
+        }
+        List<Segment> pieces = SentenceSplitter.split(seg, srcLang);
+        Segment previousSeg = new Segment(seg.start, seg.start + previous.length(), previous);
+        if (completeCount(pieces) <= completeCount(SentenceSplitter.split(previousSeg, srcLang))) {
+            return null;
+        }
+        GROWING.incrementAndGet();
+        return pieces;
+    }
+
+    private static int completeCount(List<Segment> pieces) {
+        int n = 0;
+        for (Segment piece : pieces) {
+            if (SentenceSplitter.isComplete(piece.text)) n++;
+        }
+        return n;
+    }
+
+    /** Whether the last piece is an unfinished sentence that may still grow. */
+    static boolean hasUnfinishedTail(List<Segment> pieces) {
+        return !SentenceSplitter.isComplete(pieces.get(pieces.size() - 1).text);
+    }
+}
@@ -0,0 +1,74 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded reverse index of translations we recently put on screen (translated hash ->
+ * original). After we apply a translation the framework lays it out again and custom
+ * views may echo it back through setText; the hooks check here first so our own output
+ * is recognized without a cache, DB or provider round trip.
+ */
+public final class ProducedTranslations {
+    private static final int CAPACITY = 2048;
+
+    private static final class Entry {
+        final String translated;
+        final String original;
+
+        Entry(String translated, String original) {
+            this.translated = translated;
+            this.original = original;
+        }
+    }
+
+    // Access-ordered LRU keyed by String-compatible content hash; a colliding put just
+    // replaces the older entry, which then takes the normal path again.
+    private static final LinkedHashMap<Integer, Entry> INDEX = new LinkedHashMap<Integer, Entry>(CAPACITY, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private static final AtomicLong HITS = TranslationMetrics.counter("produced.hit");
+
+    private ProducedTranslations() {
+    }
+
+    /** Remember that {@code translated} was shown in place of {@code original}. */
+    public static void record(CharSequence translated, CharSequence original) {
+        if (translated == null || translated.length() == 0) return;
+        String t = translated.toString();
+        String o = original == null ? null : original.toString();
+        if (t.equals(o)) return;
+        synchronized (INDEX) {
+            INDEX.put(t.hashCode(), new Entry(t, o));
+        }
+    }
+
+    /** True when {@code text} is one of our recent translations. */
+    public static boolean isProduced(CharSequence text) {
+        return text != null && isProduced(text, 0, text.length());
+    }
+
+    /** Range variant that avoids {@code subSequence} on the caller's side. */
+    public static boolean isProduced(CharSequence text, int start, int end) {
+        if (end <= start) return false;
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        Entry e;
+        synchronized (INDEX) {
+            e = INDEX.get(h);
+        }
+        if (e == null || e.translated.length() != end - start) return false;
+        for (int i = start; i < end; i++) {
+            if (e.translated.charAt(i - start) != text.charAt(i)) return false;
+        }
+        HITS.incrementAndGet();
+        return true;
+    }
+}
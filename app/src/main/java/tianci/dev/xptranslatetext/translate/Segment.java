@@ -16,6 +16,13 @@ public class Segment {
     public String text;
     /** Translated text, when available; falls back to {@link #text}. */
     public String translatedText;
+    /**
+     * True when {@link #translatedText} is a stand-in rather than this text's own translation:
+     * a fuzzy-memory near match, or the original text after a failed translation.
+     */
+    public boolean approximate;
+    /** Classifier verdict for {@link #text}, once a translation path has asked for it. */
+    public TextClassifier.Reason classification;
 
     /** Spans relative to the segment. */
     public List<SpanSpec> spans = new ArrayList<>();
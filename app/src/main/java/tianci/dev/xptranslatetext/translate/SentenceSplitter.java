@@ -0,0 +1,53 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.icu.text.BreakIterator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Splits plain text into sentence segments with ICU's sentence BreakIterator, using the
+ * rules of the source language when it is known. Each piece keeps its trailing
+ * whitespace, so the pieces concatenate back to the input.
+ */
+final class SentenceSplitter {
+    // BreakIterator is stateful; one per worker thread and language.
+    private static final ThreadLocal<Map<String, BreakIterator>> ITERATORS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    private SentenceSplitter() {
+    }
+
+    /** Sentences of an unstyled segment, positioned within the same original text. */
+    static List<Segment> split(Segment seg, String srcLang) {
+        List<Segment> sentences = new ArrayList<>();
+        BreakIterator it = iteratorFor(srcLang);
+        it.setText(seg.text);
+        int start = it.first();
+        for (int end = it.next(); end != BreakIterator.DONE; start = end, end = it.next()) {
+            sentences.add(new Segment(seg.start + start, seg.start + end, seg.text.substring(start, end)));
+        }
+        if (sentences.isEmpty()) {
+            sentences.add(new Segment(seg.start, seg.end, seg.text));
+        }
+        return sentences;
+    }
+
+    private static BreakIterator iteratorFor(String srcLang) {
+        String lang = srcLang == null ? "auto" : srcLang;
+        return ITERATORS.get().computeIfAbsent(lang, l -> BreakIterator.getSentenceInstance(
+                "auto".equals(l) ? Locale.ROOT : Locale.forLanguageTag(l)));
+    }
+
+    /** Whether {@code sentence} ends in terminal punctuation or a line break, i.e. won't grow further. */
+    static boolean isComplete(String sentence) {
+        int i = sentence.length() - 1;
+        while (i >= 0 && (sentence.charAt(i) == ' ' || sentence.charAt(i) == '\t')) i--;
+        // Closing quotes/brackets after the terminator: "Done." / 「完了。」
+        while (i >= 0 && "\"'”’」』)）".indexOf(sentence.charAt(i)) >= 0) i--;
+        return i >= 0 && ".!?。！？…\n".indexOf(sentence.charAt(i)) >= 0;
+    }
+}
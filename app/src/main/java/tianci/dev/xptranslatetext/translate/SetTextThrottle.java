@@ -0,0 +1,133 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tianci.dev.xptranslatetext.util.WeakIdentityMap;
+
+/**
+ * Per-target rate limit and dedupe for setText storms (timers, progress labels, typing
+ * indicators, tickers). Text equal to the target's last translated source reuses that
+ * result without a translation task; otherwise at most one translation starts per
+ * {@link #MIN_INTERVAL_MS} for a target, and updates arriving faster than that collapse
+ * into one trailing translation of the latest text. Only exact results are remembered,
+ * so approximate ones (fuzzy matches, failed segments) get translated again next time.
+ */
+final class SetTextThrottle {
+    static final long MIN_INTERVAL_MS = 500;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+    private static final WeakIdentityMap<Object, State> STATES = new WeakIdentityMap<>();
+
+    private static final AtomicLong DEDUPED = TranslationMetrics.counter("settext_throttle.deduped");
+    private static final AtomicLong DEFERRED = TranslationMetrics.counter("settext_throttle.deferred");
+    private static final AtomicLong COLLAPSED = TranslationMetrics.counter("settext_throttle.collapsed");
+
+    private static final class State {
+        // Guarded by this.
+        long lastStartMs = Long.MIN_VALUE / 2;
+        Runnable pending;
+        boolean scheduled;
+        // Last finished translation: source segment texts and what was applied for them.
+        String[] sourceTexts;
+        List<Segment> result;
+    }
+
+    private SetTextThrottle() {
+    }
+
+    /**
+     * @return the last translation for {@code target} if {@code segments} carry the same
+     * texts, else null
+     */
+    static List<Segment> lastResult(Object target, List<Segment> segments) {
+        State state = STATES.get(target);
+        if (state == null) return null;
+        synchronized (state) {
+            if (state.result == null || !sameTexts(state.sourceTexts, segments)) return null;
+            DEDUPED.incrementAndGet();
+            return state.result;
+        }
+    }
+
+    static void recordResult(Object target, List<Segment> segments, List<Segment> result) {
+        if (!isExact(result)) return;
+        State state = stateOf(target);
+        String[] texts = new String[segments.size()];
+        for (int i = 0; i < texts.length; i++) texts[i] = segments.get(i).text;
+        synchronized (state) {
+            state.sourceTexts = texts;
+            state.result = result;
+        }
+    }
+
+    /** Run {@code translate} now, or later in place of anything still waiting for this target. */
+    static void submit(Object target, Runnable translate) {
+        State state = stateOf(target);
+        long now = System.currentTimeMillis();
+        long delayMs;
+        synchronized (state) {
+            if (!state.scheduled && now - state.lastStartMs >= MIN_INTERVAL_MS) {
+                state.lastStartMs = now;
+                delayMs = -1;
+            } else {
+                if (state.pending != null) COLLAPSED.incrementAndGet();
+                state.pending = translate;
+                if (state.scheduled) return;
+                state.scheduled = true;
+                delayMs = state.lastStartMs + MIN_INTERVAL_MS - now;
+            }
+        }
+        if (delayMs < 0) {
+            translate.run();
+            return;
+        }
+        DEFERRED.incrementAndGet();
+        SCHEDULER.schedule(() -> fire(state), Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+    }
+
+    /** Run {@code task} on the throttle's scheduler thread after {@code delayMs}. */
+    static void schedule(Runnable task, long delayMs) {
+        SCHEDULER.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static void fire(State state) {
+        Runnable latest;
+        synchronized (state) {
+            latest = state.pending;
+            state.pending = null;
+            state.scheduled = false;
+            state.lastStartMs = System.currentTimeMillis();
+        }
+        if (latest != null) latest.run();
+    }
+
+    private static State stateOf(Object target) {
+        synchronized (STATES) {
+            State state = STATES.get(target);
+            if (state == null) {
+                state = new State();
+                STATES.put(target, state);
+            }
+            return state;
+        }
+    }
+
+    private static boolean isExact(List<Segment> result) {
+        for (Segment seg : result) {
+            if (seg.translatedText == null || seg.approximate) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameTexts(String[] texts, List<Segment> segments) {
+        if (texts == null || texts.length != segments.size()) return false;
+        for (int i = 0; i < texts.length; i++) {
+            if (!texts[i].equals(segments.get(i).text)) return false;
+        }
+        return true;
+    }
+}
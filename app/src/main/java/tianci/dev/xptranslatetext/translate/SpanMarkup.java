@@ -0,0 +1,127 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Whole-text serialization of styled segments with lightweight markers, so a
+ * sentence with one bold word is translated once instead of in three pieces.
+ * Segment {@code N} that carries spans is written as {@code <sN>text</sN>};
+ * unstyled segments are written as plain text.
+ */
+public final class SpanMarkup {
+    // Translators sometimes add spaces inside tags or change their case.
+    private static final Pattern TAG = Pattern.compile("<\\s*(/?)\\s*[sS]\\s*(\\d+)\\s*>");
+    private static final Pattern MARKER_LIKE = Pattern.compile("<\\s*/?\\s*[sS]\\s*\\d");
+
+    private SpanMarkup() {
+    }
+
+    /**
+     * True when markup mode can help: more than one segment, at least one of them
+     * styled, and no text that could be confused with our markers.
+     */
+    public static boolean isApplicable(List<Segment> segments) {
+        if (segments == null || segments.size() < 2) return false;
+        boolean styled = false;
+        for (Segment seg : segments) {
+            if (seg.text == null) return false;
+            if (MARKER_LIKE.matcher(seg.text).find()) return false;
+            if (!seg.spans.isEmpty()) styled = true;
+        }
+        return styled;
+    }
+
+    public static String serialize(List<Segment> segments) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < segments.size(); i++) {
+            Segment seg = segments.get(i);
+            if (seg.spans.isEmpty()) {
+                sb.append(seg.text);
+            } else {
+                sb.append("<s").append(i).append('>').append(seg.text).append("</s").append(i).append('>');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Rebuild segments from a translated markup string. Marked pieces get the spans
+     * of the original segment stretched over the translated piece; text between
+     * markers becomes unstyled segments.
+     *
+     * @return translated segments, or null when markers were lost, duplicated,
+     * nested or unbalanced (caller should fall back to per-segment translation)
+     */
+    public static List<Segment> parse(String translated, List<Segment> original) {
+        if (translated == null) return null;
+        int styledCount = 0;
+        for (Segment seg : original) {
+            if (!seg.spans.isEmpty()) styledCount++;
+        }
+
+        List<Segment> out = new ArrayList<>();
+        boolean[] seen = new boolean[original.size()];
+        Matcher m = TAG.matcher(translated);
+        int pos = 0;
+        int open = -1;
+        int openEnd = -1;
+        while (m.find()) {
+            boolean closing = !m.group(1).isEmpty();
+            int idx;
+            try {
+                idx = Integer.parseInt(m.group(2));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (idx < 0 || idx >= original.size() || original.get(idx).spans.isEmpty()) return null;
+
+            if (!closing) {
+                if (open >= 0 || seen[idx]) return null;
+                addPlain(out, translated.substring(pos, m.start()));
+                open = idx;
+                openEnd = m.end();
+            } else {
+                if (open != idx) return null;
+                addStyled(out, original.get(idx), translated.substring(openEnd, m.start()));
+                seen[idx] = true;
+                styledCount--;
+                open = -1;
+                pos = m.end();
+            }
+        }
+        if (open >= 0 || styledCount != 0) return null;
+        addPlain(out, translated.substring(pos));
+        return out;
+    }
+
+    private static void addPlain(List<Segment> out, String piece) {
+        if (piece.isEmpty()) return;
+        Segment seg = new Segment(0, 0, piece);
+        seg.translatedText = piece;
+        out.add(seg);
+    }
+
+    private static void addStyled(List<Segment> out, Segment source, String piece) {
+        Segment seg = new Segment(source.start, source.end, piece);
+        seg.translatedText = piece;
+        int oldLen = source.text.length();
+        int newLen = piece.length();
+        for (SpanSpec spec : source.spans) {
+            int start;
+            int end;
+            if (spec.start == 0 && spec.end >= oldLen) {
+                start = 0;
+                end = newLen;
+            } else {
+                // Partial spans only survive approximately; scale them to the new length.
+                start = oldLen == 0 ? 0 : (int) ((long) spec.start * newLen / oldLen);
+                end = oldLen == 0 ? newLen : (int) ((long) spec.end * newLen / oldLen);
+            }
+            seg.spans.add(new SpanSpec(spec.span, start, end, spec.flags));
+        }
+        out.add(seg);
+    }
+}
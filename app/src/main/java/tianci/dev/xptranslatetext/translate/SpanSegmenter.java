@@ -0,0 +1,112 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.text.Spanned;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cuts a {@link Spanned} at every span boundary into {@link Segment}s, each carrying
+ * the spans that cover it. Runs on the UI thread from the setText and StaticLayout
+ * hooks, so it works on primitive arrays and sweeps once over sorted boundaries
+ * instead of rescanning every span for every segment.
+ */
+public final class SpanSegmenter {
+
+    private SpanSegmenter() {
+    }
+
+    public static List<Segment> segment(Spanned spanned) {
+        int textLen = spanned.length();
+        if (textLen == 0) {
+            return new ArrayList<>();
+        }
+
+        // 1) collect all spans and read their ranges once
+        Object[] allSpans = spanned.getSpans(0, textLen, Object.class);
+        int n = allSpans.length;
+        int[] spanStarts = new int[n];
+        int[] spanEnds = new int[n];
+        int[] spanFlags = new int[n];
+
+        // 2) gather boundaries (plus 0 and textLen), sort in place and dedupe
+        int[] bounds = new int[2 * n + 2];
+        int b = 0;
+        bounds[b++] = 0;
+        bounds[b++] = textLen;
+        // Spans ordered by start; index in the low bits keeps getSpans() order for ties.
+        long[] byStart = new long[n];
+        int live = 0;
+        for (int i = 0; i < n; i++) {
+            Object span = allSpans[i];
+            int st = spanned.getSpanStart(span);
+            int en = spanned.getSpanEnd(span);
+            spanStarts[i] = st;
+            spanEnds[i] = en;
+            spanFlags[i] = spanned.getSpanFlags(span);
+            if (st < 0 || en < 0) {
+                continue; // removed concurrently
+            }
+            bounds[b++] = st;
+            bounds[b++] = en;
+            if (st < en) {
+                byStart[live++] = ((long) st << 32) | i;
+            }
+        }
+        Arrays.sort(bounds, 0, b);
+        int m = 0;
+        for (int i = 0; i < b; i++) {
+            if (m == 0 || bounds[i] != bounds[m - 1]) {
+                bounds[m++] = bounds[i];
+            }
+        }
+        Arrays.sort(byStart, 0, live);
+
+        // 3) sweep: segments are [bounds[k], bounds[k+1]); track spans covering them
+        String full = spanned.toString();
+        List<Segment> segments = new ArrayList<>(Math.max(1, m - 1));
+        int[] active = new int[Math.max(1, live)];
+        int activeCount = 0;
+        int next = 0;
+        for (int k = 0; k < m - 1; k++) {
+            int segStart = bounds[k];
+            int segEnd = bounds[k + 1];
+
+            // drop spans that ended at or before this segment
+            int kept = 0;
+            for (int a = 0; a < activeCount; a++) {
+                if (spanEnds[active[a]] > segStart) {
+                    active[kept++] = active[a];
+                }
+            }
+            activeCount = kept;
+
+            // add spans starting here, keeping active[] in getSpans() order
+            while (next < live && (int) (byStart[next] >>> 32) <= segStart) {
+                int idx = (int) byStart[next++];
+                if (spanEnds[idx] <= segStart) continue;
+                int pos = activeCount++;
+                while (pos > 0 && active[pos - 1] > idx) {
+                    active[pos] = active[pos - 1];
+                    pos--;
+                }
+                active[pos] = idx;
+            }
+
+            if (segStart < 0 || segEnd > textLen) {
+                continue;
+            }
+            Segment seg = new Segment(segStart, segEnd, full.substring(segStart, segEnd));
+            // Boundaries include every span edge, so an active span covers the whole segment.
+            int len = segEnd - segStart;
+            for (int a = 0; a < activeCount; a++) {
+                int idx = active[a];
+                seg.spans.add(new SpanSpec(allSpans[idx], 0, len, spanFlags[idx]));
+            }
+            segments.add(seg);
+        }
+
+        return segments;
+    }
+}
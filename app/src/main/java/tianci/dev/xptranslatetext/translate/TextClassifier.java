@@ -0,0 +1,181 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.lang.Character.UnicodeScript;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides in one pass over the characters, without allocating, whether a string is
+ * worth sending to a translator. Runs on the UI thread for every segment.
+ */
+public final class TextClassifier {
+
+    /** Why a string is (not) translated; each verdict is counted in {@link TranslationMetrics}. */
+    public enum Reason {
+        TRANSLATE,
+        EMPTY,
+        /** Digits and punctuation only, e.g. "12:30", "1,234.5", "+1 555". */
+        NUMERIC,
+        /** Punctuation, symbols or emoji only. */
+        SYMBOLS,
+        URL,
+        EMAIL,
+        MENTION,
+        /** A single token that looks like an identifier, code or markup, e.g. "user_id", "foo()", "a=b", "<br/>". */
+        CODE,
+        /** Already written in the target language's script. */
+        TARGET_SCRIPT;
+
+        private final AtomicLong counter = TranslationMetrics.counter("classify." + name().toLowerCase(Locale.ROOT));
+    }
+
+    private static final Map<String, TextClassifier> BY_TARGET = new ConcurrentHashMap<>();
+    private static final TextClassifier NO_SCRIPT_CHECK = new TextClassifier(null, false);
+
+    // Script that identifies the target language, or null when that script is shared by
+    // many languages (Latin, Cyrillic, Arabic...) or by variants we must still convert
+    // between (Han for zh-CN/zh-TW), so the script says nothing about the language.
+    private final UnicodeScript targetScript;
+    // Japanese and Korean text mixes in Han characters.
+    private final boolean allowHan;
+
+    private TextClassifier(UnicodeScript targetScript, boolean allowHan) {
+        this.targetScript = targetScript;
+        this.allowHan = allowHan;
+    }
+
+    public static TextClassifier forTarget(String tgtLang) {
+        if (tgtLang == null) return NO_SCRIPT_CHECK;
+        TextClassifier c = BY_TARGET.get(tgtLang);
+        if (c == null) {
+            c = create(tgtLang);
+            BY_TARGET.put(tgtLang, c);
+        }
+        return c;
+    }
+
+    private static TextClassifier create(String tgtLang) {
+        String lang = tgtLang.toLowerCase(Locale.ROOT);
+        int sep = lang.indexOf('-') >= 0 ? lang.indexOf('-') : lang.indexOf('_');
+        if (sep >= 0) lang = lang.substring(0, sep);
+        switch (lang) {
+            case "ja": return new TextClassifier(UnicodeScript.HIRAGANA, true);
+            case "ko": return new TextClassifier(UnicodeScript.HANGUL, true);
+            case "th": return new TextClassifier(UnicodeScript.THAI, false);
+            case "el": return new TextClassifier(UnicodeScript.GREEK, false);
+            case "he":
+            case "iw": return new TextClassifier(UnicodeScript.HEBREW, false);
+            case "hy": return new TextClassifier(UnicodeScript.ARMENIAN, false);
+            case "ka": return new TextClassifier(UnicodeScript.GEORGIAN, false);
+            case "km": return new TextClassifier(UnicodeScript.KHMER, false);
+            case "lo": return new TextClassifier(UnicodeScript.LAO, false);
+            case "my": return new TextClassifier(UnicodeScript.MYANMAR, false);
+            case "si": return new TextClassifier(UnicodeScript.SINHALA, false);
+            case "ta": return new TextClassifier(UnicodeScript.TAMIL, false);
+            case "te": return new TextClassifier(UnicodeScript.TELUGU, false);
+            case "kn": return new TextClassifier(UnicodeScript.KANNADA, false);
+            case "ml": return new TextClassifier(UnicodeScript.MALAYALAM, false);
+            case "gu": return new TextClassifier(UnicodeScript.GUJARATI, false);
+            case "am": return new TextClassifier(UnicodeScript.ETHIOPIC, false);
+            default: return NO_SCRIPT_CHECK;
+        }
+    }
+
+    /** Classify {@code s} and count the verdict. */
+    public Reason classify(String s) {
+        Reason reason = doClassify(s);
+        reason.counter.incrementAndGet();
+        return reason;
+    }
+
+    private Reason doClassify(String s) {
+        int len = s.length();
+        int letters = 0, digits = 0, spaces = 0;
+        int target = 0, latin = 0, foreign = 0;
+        int ats = 0, atIndex = -1;
+        boolean dotAfterAt = false;
+        boolean codeMark = false;
+
+        for (int i = 0; i < len; ) {
+            int cp = s.codePointAt(i);
+            int next = i + Character.charCount(cp);
+            if (Character.isWhitespace(cp) || Character.isSpaceChar(cp)) {
+                spaces++;
+            } else if (Character.isLetter(cp)) {
+                letters++;
+                if (targetScript != null) {
+                    UnicodeScript sc = UnicodeScript.of(cp);
+                    if (sc == targetScript || (targetScript == UnicodeScript.HIRAGANA && sc == UnicodeScript.KATAKANA)) {
+                        target++;
+                    } else if (sc == UnicodeScript.LATIN) {
+                        latin++;
+                    } else if (!(allowHan && sc == UnicodeScript.HAN)) {
+                        foreign++;
+                    }
+                }
+            } else if (Character.isDigit(cp)) {
+                digits++;
+            } else {
+                switch (cp) {
+                    case '@':
+                        if (ats++ == 0) atIndex = i;
+                        break;
+                    case '.':
+                        if (atIndex >= 0) dotAfterAt = true;
+                        break;
+                    case '_':
+                        // snake_case, not a lone "_" decoration
+                        if (i > 0 && next < len
+                                && Character.isLetterOrDigit(s.charAt(i - 1)) && Character.isLetterOrDigit(s.charAt(next))) {
+                            codeMark = true;
+                        }
+                        break;
+                    case '(':
+                        if (next < len && s.charAt(next) == ')') codeMark = true;
+                        break;
+                    case '<':
+                        // A tag like <b> or </p>, not an arrow label like "<Back"
+                        if (next < len && (Character.isLetter(s.charAt(next)) || s.charAt(next) == '/')
+                                && s.indexOf('>', next) > next) {
+                            codeMark = true;
+                        }
+                        break;
+                    case '{':
+                    case '}':
+                    case ';':
+                    case '=':
+                    case '\\':
+                        codeMark = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            i = next;
+        }
+
+        if (letters == 0 && digits == 0) {
+            return spaces == len ? Reason.EMPTY : Reason.SYMBOLS;
+        }
+        if (letters == 0) {
+            return Reason.NUMERIC;
+        }
+        if (spaces == 0) {
+            if (s.regionMatches(true, 0, "http://", 0, 7)
+                    || s.regionMatches(true, 0, "https://", 0, 8)
+                    || s.regionMatches(true, 0, "www.", 0, 4)) {
+                return Reason.URL;
+            }
+            if (ats == 1 && atIndex == 0) return Reason.MENTION;
+            if (ats == 1 && atIndex > 0 && dotAfterAt) return Reason.EMAIL;
+            if (codeMark) return Reason.CODE;
+        }
+        // A few Latin letters are fine ("Wi-Fi 설정"); these scripts pack more per letter.
+        if (target > 0 && foreign == 0 && latin <= 2 * target) {
+            return Reason.TARGET_SCRIPT;
+        }
+        return Reason.TRANSLATE;
+    }
+}
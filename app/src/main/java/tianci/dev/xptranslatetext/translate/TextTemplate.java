@@ -0,0 +1,87 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dynamic values (numbers, dates, times, URLs, emails, @mentions) pulled out of a
+ * string so that "5 minutes ago" and "12 minutes ago" share the template
+ * {@code "{0} minutes ago"}: one cache entry, one network translation, values put
+ * back into the translated template afterwards.
+ */
+public final class TextTemplate {
+    private static final Pattern DYNAMIC = Pattern.compile(
+            "(?:https?://|www\\.)[^\\s<>\"]+[^\\s<>\".,;:!?)]"                     // URL
+                    + "|[\\w.+-]+@[\\w-]+(?:\\.[\\w-]+)+"                           // email
+                    + "|(?<![\\w@])@\\w+(?:\\.\\w+)*"                              // @mention
+                    + "|(?<![\\p{L}\\d])\\d{4}[-/.]\\d{1,2}[-/.]\\d{1,2}(?![\\p{L}\\d])"   // 2024-05-01
+                    + "|(?<![\\p{L}\\d])\\d{1,2}[/.]\\d{1,2}[/.]\\d{2,4}(?![\\p{L}\\d])"   // 01/05/2024
+                    + "|(?<![\\p{L}\\d])\\d{1,2}:\\d{2}(?::\\d{2})?(?![\\p{L}\\d])"        // 12:30
+                    + "|(?<![\\p{L}\\d])\\d+(?:[.,]\\d+)*(?![\\p{L}\\d])");               // 1,234.5
+    // Translators sometimes pad placeholders with spaces.
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\s*(\\d+)\\s*\\}");
+
+    /** Template text with {@code {N}} in place of each extracted value. */
+    public final String template;
+    private final String[] values;
+
+    private TextTemplate(String template, String[] values) {
+        this.template = template;
+        this.values = values;
+    }
+
+    /**
+     * @return the template of {@code text}, or null when it has no dynamic values or
+     * already contains something that looks like a placeholder
+     */
+    public static TextTemplate extract(String text) {
+        if (text == null || text.isEmpty()) return null;
+        if (PLACEHOLDER.matcher(text).find()) return null;
+        Matcher m = DYNAMIC.matcher(text);
+        if (!m.find()) return null;
+
+        StringBuilder sb = new StringBuilder(text.length());
+        List<String> values = new ArrayList<>();
+        int last = 0;
+        do {
+            sb.append(text, last, m.start()).append('{').append(values.size()).append('}');
+            values.add(m.group());
+            last = m.end();
+        } while (m.find());
+        sb.append(text, last, text.length());
+        return new TextTemplate(sb.toString(), values.toArray(new String[0]));
+    }
+
+    /**
+     * Put this text's values back into a translation of {@link #template}.
+     *
+     * @return the filled translation, or null when a placeholder was lost, duplicated
+     * or invented by the translator (caller should treat it as a miss)
+     */
+    public String fill(String translatedTemplate) {
+        if (translatedTemplate == null) return null;
+        boolean[] seen = new boolean[values.length];
+        Matcher m = PLACEHOLDER.matcher(translatedTemplate);
+        StringBuilder sb = new StringBuilder(translatedTemplate.length() + 16);
+        int last = 0;
+        while (m.find()) {
+            int idx;
+            try {
+                idx = Integer.parseInt(m.group(1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (idx >= values.length || seen[idx]) return null;
+            seen[idx] = true;
+            sb.append(translatedTemplate, last, m.start()).append(values[idx]);
+            last = m.end();
+        }
+        for (boolean s : seen) {
+            if (!s) return null;
+        }
+        sb.append(translatedTemplate, last, translatedTemplate.length());
+        return sb.toString();
+    }
+}
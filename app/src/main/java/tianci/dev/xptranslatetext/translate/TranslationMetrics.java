@@ -0,0 +1,48 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide named counters for the translation pipeline, dumped to the Xposed
+ * log now and then. Hot paths should look a counter up once and keep the
+ * {@link AtomicLong} rather than calling {@link #increment(String)}.
+ */
+public final class TranslationMetrics {
+    private static final long REPORT_INTERVAL_MS = 60_000;
+
+    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    private static final AtomicLong lastReportMs = new AtomicLong(System.currentTimeMillis());
+
+    private TranslationMetrics() {
+    }
+
+    public static AtomicLong counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new AtomicLong());
+    }
+
+    public static void increment(String name) {
+        counter(name).incrementAndGet();
+    }
+
+    /** True at most once per report interval, for whichever caller gets there first. */
+    public static boolean shouldReport() {
+        long now = System.currentTimeMillis();
+        long last = lastReportMs.get();
+        return now - last >= REPORT_INTERVAL_MS && lastReportMs.compareAndSet(last, now);
+    }
+
+    /** Non-zero counters sorted by name, one per line. */
+    public static String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> e : new TreeMap<>(COUNTERS).entrySet()) {
+            long v = e.getValue().get();
+            if (v == 0) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(e.getKey()).append('=').append(v);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package tianci.dev.xptranslatetext.translate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tianci.dev.xptranslatetext.util.WeakIdentityMap;
+
+/**
+ * Latest translation token per target (a TextView or custom setText owner), so a result
+ * that finishes after the target got newer text is dropped. Held beside the target
+ * rather than in its tag or an additional instance field: no reflection per setText,
+ * and the app's own {@code setTag} values (ViewHolders!) are left alone. Striped by
+ * identity hash so binds on the UI thread rarely wait for a worker's check.
+ */
+public final class TranslationTokens {
+    private static final int STRIPES = 8;
+
+    private static final AtomicInteger NEXT = new AtomicInteger(1);
+    @SuppressWarnings("unchecked")
+    private static final WeakIdentityMap<Object, Integer>[] LATEST = new WeakIdentityMap[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LATEST[i] = new WeakIdentityMap<>();
+        }
+    }
+
+    private TranslationTokens() {
+    }
+
+    /** Start a new translation for {@code target}; earlier tokens for it become stale. */
+    public static int next(Object target) {
+        int token = NEXT.getAndIncrement();
+        stripe(target).put(target, token);
+        return token;
+    }
+
+    public static boolean isCurrent(Object target, int token) {
+        Integer latest = stripe(target).get(target);
+        return latest != null && latest == token;
+    }
+
+    private static WeakIdentityMap<Object, Integer> stripe(Object target) {
+        int h = System.identityHashCode(target);
+        return LATEST[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,67 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects finished translations from worker threads and applies them on the main
+ * thread together in one Choreographer frame callback, so a list bind storm costs one
+ * layout pass instead of one per view. A newer result for the same target replaces
+ * the queued one before it is ever applied.
+ */
+final class UiApplyQueue {
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final Object LOCK = new Object();
+
+    private static final AtomicLong APPLIED = TranslationMetrics.counter("ui_apply.applied");
+    private static final AtomicLong SUPERSEDED = TranslationMetrics.counter("ui_apply.superseded");
+    private static final AtomicLong FRAMES = TranslationMetrics.counter("ui_apply.frames");
+
+    // Guarded by LOCK.
+    private static Map<Object, Runnable> pending = new IdentityHashMap<>();
+    private static boolean scheduled;
+
+    private static final Choreographer.FrameCallback DRAIN = frameTimeNanos -> drain();
+
+    private UiApplyQueue() {
+    }
+
+    /** Apply {@code apply} for {@code target} in the next frame, replacing anything still queued for it. */
+    static void enqueue(Object target, Runnable apply) {
+        boolean schedule;
+        synchronized (LOCK) {
+            if (pending.put(target, apply) != null) {
+                SUPERSEDED.incrementAndGet();
+            }
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            // Choreographer is per-thread; hop to the main thread to register the callback.
+            MAIN.post(() -> Choreographer.getInstance().postFrameCallback(DRAIN));
+        }
+    }
+
+    private static void drain() {
+        Map<Object, Runnable> batch;
+        synchronized (LOCK) {
+            batch = pending;
+            pending = new IdentityHashMap<>();
+            scheduled = false;
+        }
+        FRAMES.incrementAndGet();
+        for (Runnable r : batch.values()) {
+            try {
+                r.run();
+                APPLIED.incrementAndGet();
+            } catch (Throwable t) {
+                MultiSegmentTranslateTask.log("UiApplyQueue apply error => " + t);
+            }
+        }
+    }
+}
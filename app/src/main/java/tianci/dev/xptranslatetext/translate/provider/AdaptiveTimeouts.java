@@ -0,0 +1,72 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connect/read timeouts derived from live latency per provider and language pair.
+ * Until a pair has {@link #MIN_SAMPLES} samples the static defaults are used; after
+ * that the timeout follows the p99 with some headroom, clamped to {@link Bounds}.
+ * Timed-out calls are recorded at their timeout, so a budget that is too tight
+ * keeps growing until calls start completing again.
+ */
+public class AdaptiveTimeouts {
+    static final int MIN_SAMPLES = 10;
+    private static final double HEADROOM = 1.5;
+    private static final long SLACK_MS = 20;
+
+    /** Allowed range and cold-start default for one timeout, in ms. */
+    public static final class Bounds {
+        final int minMs;
+        final int maxMs;
+        final int defaultMs;
+
+        public Bounds(int minMs, int maxMs, int defaultMs) {
+            this.minMs = minMs;
+            this.maxMs = maxMs;
+            this.defaultMs = defaultMs;
+        }
+    }
+
+    private static final class Histograms {
+        final LatencyHistogram connect = new LatencyHistogram(256);
+        final LatencyHistogram total = new LatencyHistogram(256);
+    }
+
+    private final Map<String, Histograms> byKey = new ConcurrentHashMap<>();
+
+    private Histograms histograms(String provider, String src, String tgt) {
+        return byKey.computeIfAbsent(provider + ':' + src + '>' + tgt, k -> new Histograms());
+    }
+
+    public void recordConnect(String provider, String src, String tgt, long nanos) {
+        histograms(provider, src, tgt).connect.recordNanos(nanos);
+    }
+
+    /** Whole-call latency; for a timed-out call pass the elapsed time until the timeout. */
+    public void recordLatency(String provider, String src, String tgt, long nanos) {
+        histograms(provider, src, tgt).total.recordNanos(nanos);
+    }
+
+    public int connectTimeoutMs(String provider, String src, String tgt, Bounds bounds) {
+        return fromPercentile(histograms(provider, src, tgt).connect, 0.99, bounds);
+    }
+
+    public int readTimeoutMs(String provider, String src, String tgt, Bounds bounds) {
+        return fromPercentile(histograms(provider, src, tgt).total, 0.99, bounds);
+    }
+
+    /** Observed latency percentile in ms, or -1 while there is too little data. */
+    public long percentileMs(String provider, String src, String tgt, double p) {
+        LatencyHistogram h = histograms(provider, src, tgt).total;
+        return h.count() < MIN_SAMPLES ? -1 : h.percentileMs(p);
+    }
+
+    private static int fromPercentile(LatencyHistogram h, double p, Bounds bounds) {
+        if (h.count() < MIN_SAMPLES) {
+            return bounds.defaultMs;
+        }
+        long ms = (long) (h.percentileMs(p) * HEADROOM) + SLACK_MS;
+        return (int) Math.max(bounds.minMs, Math.min(bounds.maxMs, ms));
+    }
+}
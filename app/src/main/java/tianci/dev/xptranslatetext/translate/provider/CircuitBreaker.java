@@ -0,0 +1,96 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-provider health state. CLOSED lets every call through; after
+ * {@code failureThreshold} consecutive failures the breaker OPENs and calls are
+ * skipped instantly. Once the open window elapses it goes HALF_OPEN and admits a
+ * single probe: success closes it, failure re-opens it with a doubled window.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long baseOpenNanos;
+    private final long maxOpenNanos;
+    private final LongSupplier clock;
+
+    private final AtomicBoolean probeInFlight = new AtomicBoolean(false);
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openNanos;
+    private long openUntil;
+
+    public CircuitBreaker(int failureThreshold, long baseOpenMs, long maxOpenMs) {
+        this(failureThreshold, baseOpenMs, maxOpenMs, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long baseOpenMs, long maxOpenMs, LongSupplier clock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenNanos = TimeUnit.MILLISECONDS.toNanos(baseOpenMs);
+        this.maxOpenNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(baseOpenMs, maxOpenMs));
+        this.openNanos = baseOpenNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * @return true when a call may go to the provider now. In HALF_OPEN only one
+     * caller at a time gets true; it must report back via onSuccess/onFailure.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openUntil < 0) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                // fall through to admit the probe
+            case HALF_OPEN:
+            default:
+                return probeInFlight.compareAndSet(false, true);
+        }
+    }
+
+    public synchronized void onSuccess() {
+        probeInFlight.set(false);
+        consecutiveFailures = 0;
+        openNanos = baseOpenNanos;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        probeInFlight.set(false);
+        if (state == State.HALF_OPEN) {
+            openNanos = Math.min(maxOpenNanos, openNanos * 2);
+            open();
+            return;
+        }
+        if (++consecutiveFailures >= failureThreshold && state == State.CLOSED) {
+            open();
+        }
+    }
+
+    /** Release a HALF_OPEN probe slot without judging the provider (e.g. the call was cancelled). */
+    public synchronized void onIgnored() {
+        probeInFlight.set(false);
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() - openUntil >= 0) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = clock.getAsLong() + openNanos;
+        consecutiveFailures = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe API key picker. Each key has a {@link TokenBucket} sized to the
+ * model's requests-per-minute quota, so requests are spread over keys before the
+ * server has to answer 429. Selection starts from an atomic round-robin cursor.
+ * <p>
+ * The bucket only holds a small burst and refills at the quota minus that burst,
+ * so no 60 s window (including the first) sees more than a quota of 2 or more.
+ */
+public class GeminiKeyScheduler {
+    /** Free-tier RPM quota of gemini-2.0-flash-lite. */
+    public static final int DEFAULT_REQUESTS_PER_MINUTE = 30;
+    /** Cool-down when a 429 slips through anyway. */
+    public static final long RATE_LIMITED_COOLDOWN_MS = 60_000;
+
+    private final TokenBucket[] buckets;
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final LongSupplier clock;
+    private final LongConsumer parker;
+
+    public GeminiKeyScheduler(int keyCount, int requestsPerMinute) {
+        this(keyCount, requestsPerMinute, System::nanoTime, LockSupport::parkNanos);
+    }
+
+    GeminiKeyScheduler(int keyCount, int requestsPerMinute, LongSupplier clock, LongConsumer parker) {
+        this.clock = clock;
+        this.parker = parker;
+        int burst = burstFor(requestsPerMinute);
+        buckets = new TokenBucket[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            buckets[i] = new TokenBucket(burst, Math.max(1, requestsPerMinute - burst), clock);
+        }
+    }
+
+    /** A tenth of the quota, at least 1. */
+    static int burstFor(int requestsPerMinute) {
+        return Math.max(1, requestsPerMinute / 10);
+    }
+
+    public int size() {
+        return buckets.length;
+    }
+
+    /**
+     * Take a token from the next key that has one. When every bucket is empty,
+     * wait for the earliest refill as long as that is within {@code maxWaitMs}.
+     *
+     * @return key index, or -1 when no key frees up in time (skip this provider)
+     */
+    public int acquire(long maxWaitMs) {
+        if (buckets.length == 0) return -1;
+        long deadline = clock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        while (true) {
+            int first = Math.floorMod(cursor.getAndIncrement(), buckets.length);
+            long soonest = Long.MAX_VALUE;
+            for (int i = 0; i < buckets.length; i++) {
+                int idx = (first + i) % buckets.length;
+                if (buckets[idx].tryAcquire()) {
+                    return idx;
+                }
+                soonest = Math.min(soonest, buckets[idx].nanosUntilAvailable());
+            }
+            long remaining = deadline - clock.getAsLong();
+            if (soonest > remaining) {
+                return -1;
+            }
+            parker.accept(Math.max(soonest, TimeUnit.MILLISECONDS.toNanos(1)));
+            if (Thread.currentThread().isInterrupted()) {
+                return -1;
+            }
+        }
+    }
+
+    /** The server rate limited this key anyway: stop using it for a while. */
+    public void onRateLimited(int keyIndex) {
+        buckets[keyIndex].block(RATE_LIMITED_COOLDOWN_MS);
+    }
+}
@@ -0,0 +1,238 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Free Google translate endpoint (client=gtx), used as the last fallback.
+ *
+ * <p>Batches POST many {@code q} values to {@code translate_a/t} and map the answer
+ * array back by position; a chunk whose answer does not line up is retried one
+ * text at a time.
+ */
+public class GoogleFreeProvider implements TranslationProvider {
+    public static final String NAME = "google";
+
+    private static final AdaptiveTimeouts.Bounds CONNECT_BOUNDS = new AdaptiveTimeouts.Bounds(500, 5000, 3000);
+    private static final AdaptiveTimeouts.Bounds READ_BOUNDS = new AdaptiveTimeouts.Bounds(1000, 10000, 3000);
+
+    /** Encoded form-body budget per batched request. */
+    static final int MAX_BATCH_BYTES = 5000;
+    static final int MAX_BATCH_ITEMS = 50;
+
+    /** Consecutive texts {@code [offset, offset + count)} sent as one form body. */
+    static final class Chunk {
+        final int offset;
+        final int count;
+        final String form;
+
+        Chunk(int offset, int count, String form) {
+            this.offset = offset;
+            this.count = count;
+            this.form = form;
+        }
+    }
+
+    private final String baseUrl;
+    private final AdaptiveTimeouts timeouts;
+
+    public GoogleFreeProvider(AdaptiveTimeouts timeouts) {
+        this("https://translate.googleapis.com", timeouts);
+    }
+
+    public GoogleFreeProvider(String baseUrl, AdaptiveTimeouts timeouts) {
+        this.baseUrl = baseUrl;
+        this.timeouts = timeouts;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String translate(String text, String srcLang, String tgtLang, String cacheKey) throws Exception {
+        String urlStr = baseUrl + "/translate_a/single"
+                + "?client=gtx"
+                + "&sl=" + URLEncoder.encode(srcLang, "UTF-8")
+                + "&tl=" + URLEncoder.encode(tgtLang, "UTF-8")
+                + "&dt=t"
+                + "&q=" + URLEncoder.encode(text, "UTF-8");
+
+        String body = request(urlStr, null, srcLang, tgtLang, cacheKey);
+        return body == null ? null : parseResult(cacheKey, body);
+    }
+
+    @Override
+    public String[] translateBatch(String[] texts, String srcLang, String tgtLang, String tag) throws Exception {
+        String[] out = new String[texts.length];
+        if (texts.length == 1) {
+            out[0] = translate(texts[0], srcLang, tgtLang, tag);
+            return out;
+        }
+
+        String urlStr = baseUrl + "/translate_a/t"
+                + "?client=gtx"
+                + "&format=text"
+                + "&sl=" + URLEncoder.encode(srcLang, "UTF-8")
+                + "&tl=" + URLEncoder.encode(tgtLang, "UTF-8");
+
+        for (Chunk chunk : chunkByPayload(texts, MAX_BATCH_BYTES, MAX_BATCH_ITEMS)) {
+            int offset = chunk.offset;
+            int count = chunk.count;
+            String chunkTag = String.format(Locale.ROOT, "%s#%d+%d", tag, offset, count);
+
+            String body;
+            try {
+                body = request(urlStr, chunk.form, srcLang, tgtLang, chunkTag);
+            } catch (IOException e) {
+                // Unreachable or not answering; keep what earlier chunks produced.
+                ProviderLog.log(String.format("[%s] google free api batch failed => %s", chunkTag, e));
+                return out;
+            }
+            if (body == null) {
+                // Rate limited or rejected: single GETs would only make it worse.
+                ProviderLog.log(String.format("[%s] google free api batch got an error answer, stopping", chunkTag));
+                return out;
+            }
+
+            String[] translated = parseBatchResult(chunkTag, body, count);
+            if (translated != null) {
+                System.arraycopy(translated, 0, out, offset, count);
+                continue;
+            }
+            // Answer did not line up with the request: fall back to one GET per text.
+            for (int i = 0; i < count; i++) {
+                String text = texts[offset + i];
+                try {
+                    out[offset + i] = translate(text, srcLang, tgtLang, srcLang + ":" + tgtLang + ":" + text);
+                } catch (IOException e) {
+                    ProviderLog.log(String.format("[%s] google free api fallback failed => %s", chunkTag, e));
+                    return out;
+                } catch (Exception e) {
+                    ProviderLog.log(String.format("[%s] google free api fallback exception => %s", chunkTag, e.getMessage()));
+                }
+            }
+        }
+        return out;
+    }
+
+    /** Split texts into consecutive chunks whose form body stays under {@code maxBytes}. */
+    static List<Chunk> chunkByPayload(String[] texts, int maxBytes, int maxItems) throws Exception {
+        List<Chunk> chunks = new ArrayList<>();
+        StringBuilder form = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < texts.length; i++) {
+            String param = "q=" + URLEncoder.encode(texts[i], "UTF-8");
+            if (i > start && (form.length() + 1 + param.length() > maxBytes || i - start >= maxItems)) {
+                chunks.add(new Chunk(start, i - start, form.toString()));
+                form.setLength(0);
+                start = i;
+            }
+            if (form.length() > 0) form.append('&');
+            form.append(param);
+        }
+        if (start < texts.length) {
+            chunks.add(new Chunk(start, texts.length - start, form.toString()));
+        }
+        return chunks;
+    }
+
+    /**
+     * GET {@code urlStr}, or POST {@code form} to it as x-www-form-urlencoded when
+     * non-null. Returns the body, or null on a non-200 answer.
+     */
+    private String request(String urlStr, String form, String srcLang, String tgtLang, String cacheKey) throws Exception {
+        long start = System.nanoTime();
+        HttpURLConnection conn = ProviderHttp.open(urlStr);
+        try {
+            conn.setRequestMethod(form == null ? "GET" : "POST");
+            conn.setRequestProperty("User-Agent", ProviderHttp.USER_AGENT);
+            conn.setConnectTimeout(timeouts.connectTimeoutMs(NAME, srcLang, tgtLang, CONNECT_BOUNDS));
+            conn.setReadTimeout(timeouts.readTimeoutMs(NAME, srcLang, tgtLang, READ_BOUNDS));
+            if (form != null) {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
+            }
+            timeouts.recordConnect(NAME, srcLang, tgtLang, ProviderHttp.connect(conn));
+
+            if (form != null) {
+                try (OutputStream os = conn.getOutputStream()) {
+                    os.write(form.getBytes("UTF-8"));
+                }
+            }
+
+            ProviderLog.log(String.format(Locale.ROOT, "[%s] request sent, awaiting response from google free api ...", cacheKey));
+            if (conn.getResponseCode() != 200) {
+                return null;
+            }
+            String body = ProviderHttp.readAll(conn.getInputStream());
+            timeouts.recordLatency(NAME, srcLang, tgtLang, System.nanoTime() - start);
+            return body;
+        } catch (SocketTimeoutException e) {
+            timeouts.recordLatency(NAME, srcLang, tgtLang, System.nanoTime() - start);
+            throw e;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    static String parseResult(String cacheKey, String json) {
+        try {
+            JSONArray jsonArray = new JSONArray(json);
+            JSONArray translations = jsonArray.getJSONArray(0);
+            StringBuilder translatedText = new StringBuilder();
+            for (int i = 0; i < translations.length(); i++) {
+                JSONArray arr = translations.getJSONArray(i);
+                translatedText.append(arr.getString(0));
+            }
+            String text = translatedText.toString();
+            return text.trim();
+        } catch (JSONException e) {
+            ProviderLog.log(String.format("[%s] parsing google free api exception response => %s", cacheKey, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Parse a {@code translate_a/t} answer for {@code count} queries. Items are either
+     * plain strings or {@code [translation, detectedLang]} pairs (when sl=auto).
+     *
+     * @return translations by position, or null when the answer does not have exactly {@code count} items
+     */
+    static String[] parseBatchResult(String tag, String json, int count) {
+        try {
+            JSONArray root = new JSONArray(json);
+            if (root.length() != count) {
+                ProviderLog.log(String.format(Locale.ROOT, "[%s] google free api batch returned %d items for %d queries", tag, root.length(), count));
+                return null;
+            }
+            String[] out = new String[count];
+            for (int i = 0; i < count; i++) {
+                Object item = root.get(i);
+                if (item instanceof JSONArray) {
+                    item = ((JSONArray) item).opt(0);
+                }
+                if (!(item instanceof String)) {
+                    return null;
+                }
+                String text = ((String) item).trim();
+                out[i] = text.isEmpty() ? null : text;
+            }
+            return out;
+        } catch (JSONException e) {
+            ProviderLog.log(String.format("[%s] parsing google free api batch exception response => %s", tag, e.getMessage()));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caps how many hedged (duplicate) requests a package may issue. Every primary
+ * request earns {@code ratio} of a token, a hedge spends a whole one, so hedges
+ * can never exceed {@code ratio} of the primary traffic plus a small burst.
+ */
+public class HedgeBudget {
+    private static final Map<String, HedgeBudget> BY_PACKAGE = new ConcurrentHashMap<>();
+
+    private static final double DEFAULT_RATIO = 0.1;
+    private static final double DEFAULT_BURST = 3;
+
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    public HedgeBudget(double ratio, double maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    /** Shared budget for one app package. */
+    public static HedgeBudget forPackage(String packageName) {
+        return BY_PACKAGE.computeIfAbsent(packageName == null ? "" : packageName,
+                k -> new HedgeBudget(DEFAULT_RATIO, DEFAULT_BURST));
+    }
+
+    public synchronized void onPrimaryRequest() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /** @return true and spend a token when a hedge is allowed now. */
+    public synchronized boolean tryAcquireHedge() {
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    public synchronized double getTokens() {
+        return tokens;
+    }
+}
@@ -0,0 +1,82 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling log-scale latency histogram. Buckets grow by 25% from 1ms up to about a
+ * minute, so percentiles are accurate to one bucket (~25%). Once {@code window}
+ * samples have been added all counts are halved, so old behaviour fades out and
+ * the percentiles follow the current state of the backend.
+ */
+public class LatencyHistogram {
+    private static final double GROWTH = 1.25;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final int BUCKETS = 50; // 1.25^49 ms ~= 56s
+
+    private final int window;
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long sinceDecay;
+
+    public LatencyHistogram() {
+        this(512);
+    }
+
+    public LatencyHistogram(int window) {
+        this.window = Math.max(16, window);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMs(nanos / 1_000_000.0);
+    }
+
+    public synchronized void recordMs(double ms) {
+        counts[bucketOf(ms)]++;
+        total++;
+        if (++sinceDecay >= window) {
+            sinceDecay = 0;
+            total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] >>= 1;
+                total += counts[i];
+            }
+        }
+    }
+
+    /** Number of samples currently weighing on the percentiles. */
+    public synchronized long count() {
+        return total;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0..1) in ms,
+     * or -1 when there are no samples.
+     */
+    public synchronized long percentileMs(double p) {
+        if (total == 0) return -1;
+        long rank = (long) Math.ceil(Math.max(0, Math.min(1, p)) * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return upperBoundMs(i);
+            }
+        }
+        return upperBoundMs(BUCKETS - 1);
+    }
+
+    public long percentile(double p, TimeUnit unit) {
+        long ms = percentileMs(p);
+        return ms < 0 ? -1 : unit.convert(ms, TimeUnit.MILLISECONDS);
+    }
+
+    private static int bucketOf(double ms) {
+        if (ms <= 1) return 0;
+        int b = (int) Math.ceil(Math.log(ms) / LOG_GROWTH);
+        return Math.min(BUCKETS - 1, b);
+    }
+
+    private static long upperBoundMs(int bucket) {
+        return (long) Math.ceil(Math.pow(GROWTH, bucket));
+    }
+}
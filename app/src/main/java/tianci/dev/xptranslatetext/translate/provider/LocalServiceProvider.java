@@ -0,0 +1,103 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import org.json.JSONObject;
+
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URLEncoder;
+
+import tianci.dev.xptranslatetext.service.LocalTranslationService;
+
+/**
+ * On-device ML Kit translation through the module's local HTTP server.
+ * Timeouts adapt to the observed latency of each language pair.
+ */
+public class LocalServiceProvider implements TranslationProvider {
+    public static final String NAME = "local";
+    /** Stats name of the short-deadline path; it has its own latency profile. */
+    public static final String QUICK_NAME = "local:quick";
+
+    private static final AdaptiveTimeouts.Bounds CONNECT_BOUNDS = new AdaptiveTimeouts.Bounds(100, 1000, 1000);
+    // Upper bound leaves room for a cold model on a slow device.
+    private static final AdaptiveTimeouts.Bounds READ_BOUNDS = new AdaptiveTimeouts.Bounds(300, 6000, 3000);
+    // Quick path runs while the UI thread waits: keep short to avoid UI jank.
+    private static final AdaptiveTimeouts.Bounds QUICK_CONNECT_BOUNDS = new AdaptiveTimeouts.Bounds(50, 250, 150);
+    private static final AdaptiveTimeouts.Bounds QUICK_READ_BOUNDS = new AdaptiveTimeouts.Bounds(80, 600, 250);
+
+    private final String baseUrl;
+    private final AdaptiveTimeouts timeouts;
+
+    public LocalServiceProvider(AdaptiveTimeouts timeouts) {
+        this("http://127.0.0.1:" + LocalTranslationService.PORT, timeouts);
+    }
+
+    public LocalServiceProvider(String baseUrl, AdaptiveTimeouts timeouts) {
+        this.baseUrl = baseUrl;
+        this.timeouts = timeouts;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supportsQuick() {
+        return true;
+    }
+
+    @Override
+    public String translate(String text, String srcLang, String tgtLang, String cacheKey) throws Exception {
+        String urlStr = buildUrl(text, srcLang, tgtLang);
+        ProviderLog.log(String.format("[%s] access local service => %s", cacheKey, urlStr));
+        return request(urlStr, NAME, srcLang, tgtLang, CONNECT_BOUNDS, READ_BOUNDS);
+    }
+
+    @Override
+    public String translateQuick(String text, String srcLang, String tgtLang, String cacheKey) throws Exception {
+        // Keep quiet on quick path to avoid log flood
+        return request(buildUrl(text, srcLang, tgtLang), QUICK_NAME, srcLang, tgtLang, QUICK_CONNECT_BOUNDS, QUICK_READ_BOUNDS);
+    }
+
+    private String buildUrl(String text, String src, String dst) throws Exception {
+        return baseUrl + "/translate"
+                + "?src=" + URLEncoder.encode(src == null ? "auto" : src, "UTF-8")
+                + "&dst=" + URLEncoder.encode(dst == null ? "zh-TW" : dst, "UTF-8")
+                + "&q=" + URLEncoder.encode(text, "UTF-8");
+    }
+
+    private String request(String urlStr, String statsName, String src, String dst,
+                           AdaptiveTimeouts.Bounds connectBounds, AdaptiveTimeouts.Bounds readBounds) throws Exception {
+        int connectTimeoutMs = timeouts.connectTimeoutMs(statsName, src, dst, connectBounds);
+        int readTimeoutMs = timeouts.readTimeoutMs(statsName, src, dst, readBounds);
+        long start = System.nanoTime();
+        HttpURLConnection conn = ProviderHttp.open(urlStr);
+        try {
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(connectTimeoutMs);
+            conn.setReadTimeout(readTimeoutMs);
+            timeouts.recordConnect(statsName, src, dst, ProviderHttp.connect(conn));
+
+            int status = conn.getResponseCode();
+            if (status != 200) {
+                return null;
+            }
+            JSONObject obj = new JSONObject(ProviderHttp.readAll(conn.getInputStream()));
+            timeouts.recordLatency(statsName, src, dst, System.nanoTime() - start);
+            if (obj.optInt("code", -1) != 0) return null;
+            String result = obj.optString("text", null);
+            return result == null ? null : result.trim();
+        } catch (ConnectException e) {
+            if (e.getCause() instanceof SocketTimeoutException) {
+                timeouts.recordConnect(statsName, src, dst, System.nanoTime() - start);
+            }
+            throw e;
+        } catch (SocketTimeoutException e) {
+            timeouts.recordLatency(statsName, src, dst, System.nanoTime() - start);
+            throw e;
+        } finally {
+            conn.disconnect();
+        }
+    }
+}
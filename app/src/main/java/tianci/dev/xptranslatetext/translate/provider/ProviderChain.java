@@ -0,0 +1,504 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordered fallback over {@link TranslationProvider}s. Each provider has its own
+ * {@link CircuitBreaker} so backends known to be down are skipped without paying
+ * their timeouts, and its own {@link ProviderStats}.
+ *
+ * <p>With hedging enabled, a primary that has not answered by its observed p95
+ * latency gets the rest of the chain started in parallel (within a
+ * {@link HedgeBudget}); the first result wins and the loser's connection is closed.
+ */
+public class ProviderChain {
+
+    /** Translation plus the provider that produced it. */
+    public static final class Result {
+        public final String text;
+        public final String provider;
+
+        Result(String text, String provider) {
+            this.text = text;
+            this.provider = provider;
+        }
+    }
+
+    /** A provider with its health state and stats. */
+    public static final class Entry {
+        public final TranslationProvider provider;
+        public final CircuitBreaker breaker;
+        public final ProviderStats stats = new ProviderStats();
+
+        Entry(TranslationProvider provider, CircuitBreaker breaker) {
+            this.provider = provider;
+            this.breaker = breaker;
+        }
+    }
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final long DEFAULT_OPEN_MS = 10_000;
+    private static final long DEFAULT_MAX_OPEN_MS = 120_000;
+
+    /** Don't trust the p95 until the primary has this many successful samples. */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY_MS = 50;
+    private static final long MAX_HEDGE_DELAY_MS = 2000;
+
+    private final List<Entry> entries;
+    private volatile ExecutorService hedgeExecutor;
+    private volatile HedgeBudget hedgeBudget;
+
+    public ProviderChain(List<? extends TranslationProvider> providers) {
+        List<Entry> list = new ArrayList<>(providers.size());
+        for (TranslationProvider p : providers) {
+            list.add(new Entry(p, new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MS, DEFAULT_MAX_OPEN_MS)));
+        }
+        this.entries = Collections.unmodifiableList(list);
+    }
+
+    /** Build a chain from {@code available} ordered by a comma separated list of provider names. */
+    public static ProviderChain ordered(String order, List<? extends TranslationProvider> available) {
+        List<TranslationProvider> picked = new ArrayList<>();
+        if (order != null) {
+            for (String raw : order.split(",")) {
+                String name = raw.trim();
+                for (TranslationProvider p : available) {
+                    if (p.name().equalsIgnoreCase(name) && !picked.contains(p)) {
+                        picked.add(p);
+                    }
+                }
+            }
+        }
+        return new ProviderChain(picked.isEmpty() ? available : picked);
+    }
+
+    /**
+     * Turn on hedged requests. The executor runs the primary and the hedge; it must
+     * not be bounded so tightly that the caller's own thread can starve it.
+     */
+    public void enableHedging(ExecutorService executor, HedgeBudget budget) {
+        this.hedgeBudget = budget;
+        this.hedgeExecutor = executor;
+    }
+
+    public void disableHedging() {
+        this.hedgeExecutor = null;
+        this.hedgeBudget = null;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /** Try each provider in order; null when every provider failed or was skipped. */
+    public Result translate(String text, String srcLang, String tgtLang, String cacheKey) {
+        ExecutorService executor = hedgeExecutor;
+        HedgeBudget budget = hedgeBudget;
+        if (executor != null && budget != null) {
+            return translateHedged(executor, budget, text, srcLang, tgtLang, cacheKey);
+        }
+        return translateFrom(0, null, text, srcLang, tgtLang, cacheKey);
+    }
+
+    /**
+     * Translate many texts, passing whatever one provider could not translate on to
+     * the next. Hedged like {@link #translate}: a primary batch still running at its
+     * p95 gets the rest of the chain started on the same texts.
+     *
+     * @return one entry per text, null where every provider failed
+     */
+    public Result[] translateBatch(String[] texts, String srcLang, String tgtLang, String tag) {
+        ExecutorService executor = hedgeExecutor;
+        HedgeBudget budget = hedgeBudget;
+        if (executor != null && budget != null) {
+            return translateBatchHedged(executor, budget, texts, srcLang, tgtLang, tag);
+        }
+        Result[] results = new Result[texts.length];
+        batchFrom(0, null, results, texts, srcLang, tgtLang, tag);
+        return results;
+    }
+
+    /**
+     * Only consult providers with a real quick path (e.g. the local server), for
+     * synchronous waits on the UI thread.
+     */
+    public Result translateQuick(String text, String srcLang, String tgtLang, String cacheKey) {
+        for (Entry e : entries) {
+            if (!e.provider.supportsQuick()) continue;
+            String result = call(e, null, text, srcLang, tgtLang, cacheKey, true);
+            if (result != null) {
+                return new Result(result, e.provider.name());
+            }
+        }
+        return null;
+    }
+
+    /** True when at least one quick-capable provider is currently not short-circuited. */
+    public boolean hasQuickProviderAvailable() {
+        for (Entry e : entries) {
+            if (e.provider.supportsQuick() && e.provider.isConfigured()
+                    && e.breaker.getState() != CircuitBreaker.State.OPEN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Result translateFrom(int from, ProviderHttp.Attempt attempt,
+                                 String text, String srcLang, String tgtLang, String cacheKey) {
+        for (int i = from; i < entries.size(); i++) {
+            if (attempt != null && attempt.isCancelled()) {
+                return null;
+            }
+            Entry e = entries.get(i);
+            String result = call(e, attempt, text, srcLang, tgtLang, cacheKey, false);
+            if (result != null) {
+                return new Result(result, e.provider.name());
+            }
+        }
+        return null;
+    }
+
+    private Result translateHedged(ExecutorService executor, HedgeBudget budget,
+                                   String text, String srcLang, String tgtLang, String cacheKey) {
+        int primaryIndex = primaryIndex();
+        long delayMs = primaryIndex < 0 ? -1 : hedgeDelayMs(entries.get(primaryIndex));
+        if (delayMs < 0 || primaryIndex == entries.size() - 1) {
+            // Nothing to measure against, or nothing to hedge with.
+            return translateFrom(0, null, text, srcLang, tgtLang, cacheKey);
+        }
+
+        final Entry primary = entries.get(primaryIndex);
+        final int hedgeFrom = primaryIndex + 1;
+        budget.onPrimaryRequest();
+
+        ExecutorCompletionService<Result> ecs = new ExecutorCompletionService<>(executor);
+        ProviderHttp.Attempt primaryAttempt = new ProviderHttp.Attempt();
+        Future<Result> primaryFuture = ecs.submit(() -> {
+            ProviderHttp.bind(primaryAttempt);
+            try {
+                String r = call(primary, primaryAttempt, text, srcLang, tgtLang, cacheKey, false);
+                return r == null ? null : new Result(r, primary.provider.name());
+            } finally {
+                ProviderHttp.bind(null);
+            }
+        });
+
+        ProviderHttp.Attempt hedgeAttempt = null;
+        Future<Result> hedgeFuture = null;
+        try {
+            Future<Result> done = ecs.poll(delayMs, TimeUnit.MILLISECONDS);
+            if (done != null) {
+                Result r = resultOf(done);
+                return r != null ? r : translateFrom(hedgeFrom, null, text, srcLang, tgtLang, cacheKey);
+            }
+
+            if (!budget.tryAcquireHedge()) {
+                Result r = resultOf(primaryFuture);
+                return r != null ? r : translateFrom(hedgeFrom, null, text, srcLang, tgtLang, cacheKey);
+            }
+
+            final ProviderHttp.Attempt attempt = new ProviderHttp.Attempt();
+            hedgeAttempt = attempt;
+            hedgeFuture = ecs.submit(() -> {
+                ProviderHttp.bind(attempt);
+                try {
+                    return translateFrom(hedgeFrom, attempt, text, srcLang, tgtLang, cacheKey);
+                } finally {
+                    ProviderHttp.bind(null);
+                }
+            });
+
+            // First non-null result wins; a null or a failure only means that side gave up.
+            for (int pending = 2; pending > 0; pending--) {
+                Future<Result> f = ecs.take();
+                Result r = resultOf(f);
+                if (r != null) {
+                    if (f == primaryFuture) {
+                        hedgeAttempt.cancel();
+                        hedgeFuture.cancel(true);
+                    } else {
+                        primaryAttempt.cancel();
+                        primaryFuture.cancel(true);
+                    }
+                    return r;
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            primaryAttempt.cancel();
+            primaryFuture.cancel(true);
+            if (hedgeAttempt != null) {
+                hedgeAttempt.cancel();
+                hedgeFuture.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /** Fill the null entries of {@code results} from providers {@code from} onwards. */
+    private void batchFrom(int from, ProviderHttp.Attempt attempt, Result[] results,
+                           String[] texts, String srcLang, String tgtLang, String tag) {
+        for (int i = from; i < entries.size(); i++) {
+            if (attempt != null && attempt.isCancelled()) {
+                return;
+            }
+            if (!batchCall(entries.get(i), attempt, results, texts, srcLang, tgtLang, tag)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * One provider's batch over the texts still missing in {@code results}.
+     *
+     * @return false when nothing is left to translate
+     */
+    private static boolean batchCall(Entry e, ProviderHttp.Attempt attempt, Result[] results,
+                                     String[] texts, String srcLang, String tgtLang, String tag) {
+        int remaining = 0;
+        for (Result r : results) {
+            if (r == null) remaining++;
+        }
+        if (remaining == 0) return false;
+        if (!e.provider.isConfigured()) return true;
+        if (!e.breaker.tryAcquire()) {
+            e.stats.recordSkipped();
+            return true;
+        }
+
+        int[] pending = new int[remaining];
+        String[] batch = new String[remaining];
+        for (int i = 0, k = 0; i < texts.length; i++) {
+            if (results[i] == null) {
+                pending[k] = i;
+                batch[k++] = texts[i];
+            }
+        }
+
+        long start = System.nanoTime();
+        String[] out = null;
+        try {
+            out = e.provider.translateBatch(batch, srcLang, tgtLang, tag);
+        } catch (Exception ignored) {
+        }
+        long latency = System.nanoTime() - start;
+        if (attempt != null && attempt.isCancelled()) {
+            e.stats.recordCancelled(latency);
+            e.breaker.onIgnored();
+            return false;
+        }
+
+        int translated = 0;
+        if (out != null) {
+            for (int k = 0; k < pending.length && k < out.length; k++) {
+                if (out[k] != null) {
+                    results[pending[k]] = new Result(out[k], e.provider.name());
+                    translated++;
+                }
+            }
+        }
+        if (translated > 0) {
+            e.stats.recordSuccess(latency);
+            e.breaker.onSuccess();
+        } else {
+            e.stats.recordFailure(latency);
+            e.breaker.onFailure();
+        }
+        return translated < remaining;
+    }
+
+    /**
+     * Batch form of {@link #translateHedged}. The hedge runs the rest of the chain over
+     * every text; a side that translated all of them wins outright, otherwise both
+     * sides are merged, preferring the primary's translations.
+     */
+    private Result[] translateBatchHedged(ExecutorService executor, HedgeBudget budget,
+                                          String[] texts, String srcLang, String tgtLang, String tag) {
+        int primaryIndex = primaryIndex();
+        long delayMs = primaryIndex < 0 ? -1 : hedgeDelayMs(entries.get(primaryIndex));
+        if (delayMs < 0 || primaryIndex == entries.size() - 1) {
+            Result[] results = new Result[texts.length];
+            batchFrom(0, null, results, texts, srcLang, tgtLang, tag);
+            return results;
+        }
+
+        final Entry primary = entries.get(primaryIndex);
+        final int hedgeFrom = primaryIndex + 1;
+        budget.onPrimaryRequest();
+
+        ExecutorCompletionService<Result[]> ecs = new ExecutorCompletionService<>(executor);
+        ProviderHttp.Attempt primaryAttempt = new ProviderHttp.Attempt();
+        Future<Result[]> primaryFuture = ecs.submit(() -> {
+            ProviderHttp.bind(primaryAttempt);
+            try {
+                Result[] results = new Result[texts.length];
+                batchCall(primary, primaryAttempt, results, texts, srcLang, tgtLang, tag);
+                return results;
+            } finally {
+                ProviderHttp.bind(null);
+            }
+        });
+
+        ProviderHttp.Attempt hedgeAttempt = null;
+        Future<Result[]> hedgeFuture = null;
+        try {
+            Future<Result[]> done = ecs.poll(delayMs, TimeUnit.MILLISECONDS);
+            if (done != null || !budget.tryAcquireHedge()) {
+                // Answered in time, or no hedge allowed: the rest of the chain fills the gaps.
+                Result[] results = orEmpty(resultOf(primaryFuture), texts.length);
+                batchFrom(hedgeFrom, null, results, texts, srcLang, tgtLang, tag);
+                return results;
+            }
+
+            final ProviderHttp.Attempt attempt = new ProviderHttp.Attempt();
+            hedgeAttempt = attempt;
+            hedgeFuture = ecs.submit(() -> {
+                ProviderHttp.bind(attempt);
+                try {
+                    Result[] results = new Result[texts.length];
+                    batchFrom(hedgeFrom, attempt, results, texts, srcLang, tgtLang, tag);
+                    return results;
+                } finally {
+                    ProviderHttp.bind(null);
+                }
+            });
+
+            Future<Result[]> first = ecs.take();
+            Result[] firstResults = orEmpty(resultOf(first), texts.length);
+            if (isComplete(firstResults)) {
+                if (first == primaryFuture) {
+                    hedgeAttempt.cancel();
+                    hedgeFuture.cancel(true);
+                } else {
+                    primaryAttempt.cancel();
+                    primaryFuture.cancel(true);
+                }
+                return firstResults;
+            }
+            Result[] secondResults = orEmpty(resultOf(ecs.take()), texts.length);
+            Result[] preferred = first == primaryFuture ? firstResults : secondResults;
+            Result[] other = first == primaryFuture ? secondResults : firstResults;
+            for (int i = 0; i < preferred.length; i++) {
+                if (preferred[i] == null) preferred[i] = other[i];
+            }
+            return preferred;
+        } catch (InterruptedException e) {
+            primaryAttempt.cancel();
+            primaryFuture.cancel(true);
+            if (hedgeAttempt != null) {
+                hedgeAttempt.cancel();
+                hedgeFuture.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return new Result[texts.length];
+        }
+    }
+
+    private static Result[] orEmpty(Result[] results, int length) {
+        return results != null ? results : new Result[length];
+    }
+
+    private static boolean isComplete(Result[] results) {
+        for (Result r : results) {
+            if (r == null) return false;
+        }
+        return true;
+    }
+
+    /** First configured provider whose breaker is not open, or -1. */
+    private int primaryIndex() {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if (e.provider.isConfigured() && e.breaker.getState() != CircuitBreaker.State.OPEN) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static <T> T resultOf(Future<T> f) throws InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /** p95 of the primary clamped to sane bounds, or -1 while there is too little data. */
+    private static long hedgeDelayMs(Entry primary) {
+        LatencyHistogram histogram = primary.stats.getSuccessLatency();
+        if (histogram.count() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        long p95 = histogram.percentileMs(0.95);
+        return Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS, p95));
+    }
+
+    private static String call(Entry e, ProviderHttp.Attempt attempt,
+                               String text, String srcLang, String tgtLang, String cacheKey, boolean quick) {
+        if (!e.provider.isConfigured()) {
+            return null;
+        }
+        if (!e.breaker.tryAcquire()) {
+            e.stats.recordSkipped();
+            return null;
+        }
+        long start = System.nanoTime();
+        String result = null;
+        Exception error = null;
+        try {
+            result = quick
+                    ? e.provider.translateQuick(text, srcLang, tgtLang, cacheKey)
+                    : e.provider.translate(text, srcLang, tgtLang, cacheKey);
+        } catch (Exception ex) {
+            error = ex;
+        }
+        long latency = System.nanoTime() - start;
+        if (attempt != null && attempt.isCancelled()) {
+            // Lost a hedge race: says nothing about the provider's health, but the time
+            // it had already taken still belongs in its latency percentiles.
+            e.stats.recordCancelled(latency);
+            e.breaker.onIgnored();
+            return null;
+        }
+        if (result != null) {
+            e.stats.recordSuccess(latency);
+            e.breaker.onSuccess();
+        } else {
+            e.stats.recordFailure(latency);
+            // A quick-path timeout only says the server is slower than the UI budget,
+            // not that it is down; only refused connections count against its health.
+            if (!quick || error instanceof ConnectException) {
+                e.breaker.onFailure();
+            } else {
+                e.breaker.onIgnored();
+            }
+        }
+        return result;
+    }
+
+    /** One line per provider: name, breaker state and stats. */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : entries) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(e.provider.name()).append(" [").append(e.breaker.getState()).append("] ").append(e.stats);
+        }
+        if (hedgeBudget != null) {
+            sb.append(String.format(Locale.ROOT, "\nhedge tokens=%.2f", hedgeBudget.getTokens()));
+        }
+        return sb.toString();
+    }
+}
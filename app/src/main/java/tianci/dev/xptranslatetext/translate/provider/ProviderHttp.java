@@ -0,0 +1,94 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+/**
+ * Small HTTP helpers shared by the providers.
+ */
+final class ProviderHttp {
+    static final String USER_AGENT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/133.0.0.0 Safari/537.36";
+
+    /** Attempt running on this thread, so a hedged loser can have its socket closed. */
+    private static final ThreadLocal<Attempt> CURRENT_ATTEMPT = new ThreadLocal<>();
+
+    /** One provider call that may be cancelled from another thread. */
+    static final class Attempt {
+        private volatile HttpURLConnection conn;
+        private volatile boolean cancelled;
+
+        void cancel() {
+            cancelled = true;
+            HttpURLConnection c = conn;
+            if (c != null) {
+                c.disconnect();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private ProviderHttp() {
+    }
+
+    static void bind(Attempt attempt) {
+        if (attempt == null) {
+            CURRENT_ATTEMPT.remove();
+        } else {
+            CURRENT_ATTEMPT.set(attempt);
+        }
+    }
+
+    /** Open a connection tracked by the current attempt, if any. */
+    static HttpURLConnection open(String urlStr) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
+        Attempt attempt = CURRENT_ATTEMPT.get();
+        if (attempt != null) {
+            attempt.conn = conn;
+            if (attempt.isCancelled()) {
+                conn.disconnect();
+                throw new IOException("cancelled");
+            }
+        }
+        return conn;
+    }
+
+    /** Read a whole response stream as UTF-8, joining lines like the original readers did. */
+    static String readAll(InputStream is) throws IOException {
+        if (is == null) return "";
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(is, "UTF-8"))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                sb.append(line);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Connect explicitly so a connect-phase timeout surfaces as {@link ConnectException}
+     * (the server is unreachable) rather than a read timeout (the server is slow).
+     *
+     * @return time spent connecting, in nanos
+     */
+    static long connect(HttpURLConnection conn) throws IOException {
+        long start = System.nanoTime();
+        try {
+            conn.connect();
+            return System.nanoTime() - start;
+        } catch (SocketTimeoutException e) {
+            ConnectException ce = new ConnectException("connect timed out");
+            ce.initCause(e);
+            throw ce;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.function.Consumer;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Where the providers log. XposedBridge in the hooked app; unit tests, which run
+ * without the Xposed API, swap in their own sink.
+ */
+final class ProviderLog {
+    private static volatile Consumer<String> sink = msg -> XposedBridge.log(msg);
+
+    private ProviderLog() {
+    }
+
+    static void log(String msg) {
+        sink.accept(msg);
+    }
+
+    /** Replace the sink; for tests. */
+    static void setSink(Consumer<String> newSink) {
+        sink = newSink;
+    }
+}
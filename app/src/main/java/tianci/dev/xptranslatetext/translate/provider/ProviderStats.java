@@ -0,0 +1,94 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Success/failure counters and latency for one provider.
+ * Latency is kept as a running total, an EWMA of recent calls, and a rolling
+ * histogram of successful calls for percentiles.
+ */
+public class ProviderStats {
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final LatencyHistogram successLatency = new LatencyHistogram();
+    private volatile double ewmaLatencyMs = -1;
+
+    public void recordSuccess(long latencyNanos) {
+        successes.incrementAndGet();
+        successLatency.recordNanos(latencyNanos);
+        recordLatency(latencyNanos);
+    }
+
+    public void recordFailure(long latencyNanos) {
+        failures.incrementAndGet();
+        recordLatency(latencyNanos);
+    }
+
+    /**
+     * The call was cancelled after {@code elapsedNanos} (it lost a hedge race).
+     * Only the latency histogram sees it, as a lower bound of the real latency.
+     */
+    public void recordCancelled(long elapsedNanos) {
+        successLatency.recordNanos(elapsedNanos);
+    }
+
+    /** The call was short-circuited by an open breaker. */
+    public void recordSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    private void recordLatency(long latencyNanos) {
+        totalLatencyNanos.addAndGet(latencyNanos);
+        double ms = latencyNanos / 1_000_000.0;
+        synchronized (this) {
+            ewmaLatencyMs = ewmaLatencyMs < 0 ? ms : ewmaLatencyMs + EWMA_ALPHA * (ms - ewmaLatencyMs);
+        }
+    }
+
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /** Fraction of attempted calls that succeeded, or 1 before any call. */
+    public double getSuccessRate() {
+        long ok = successes.get();
+        long total = ok + failures.get();
+        return total == 0 ? 1.0 : (double) ok / total;
+    }
+
+    /** Mean latency over all attempted calls in ms, or -1 before any call. */
+    public double getMeanLatencyMs() {
+        long total = successes.get() + failures.get();
+        return total == 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos.get()) / 1000.0 / total;
+    }
+
+    public double getEwmaLatencyMs() {
+        return ewmaLatencyMs;
+    }
+
+    /** Latency histogram of successful calls. */
+    public LatencyHistogram getSuccessLatency() {
+        return successLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ok=%d fail=%d skip=%d rate=%.2f ewma=%.1fms mean=%.1fms p95=%dms",
+                getSuccesses(), getFailures(), getSkipped(), getSuccessRate(), getEwmaLatencyMs(), getMeanLatencyMs(),
+                successLatency.percentileMs(0.95));
+    }
+}
@@ -0,0 +1,68 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Classic token bucket: {@code capacity} tokens, refilled continuously at
+ * {@code refillPerMinute}. Can additionally be blocked outright until a point in
+ * time (after the server answered 429 despite our accounting).
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double refillPerNano;
+    private final LongSupplier clock;
+
+    private double tokens;
+    private long lastRefill;
+    private long blockedUntil;
+
+    public TokenBucket(double capacity, double refillPerMinute) {
+        this(capacity, refillPerMinute, System::nanoTime);
+    }
+
+    TokenBucket(double capacity, double refillPerMinute, LongSupplier clock) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerMinute / TimeUnit.MINUTES.toNanos(1);
+        this.clock = clock;
+        this.tokens = capacity;
+        this.lastRefill = clock.getAsLong();
+        this.blockedUntil = lastRefill;
+    }
+
+    /** Take one token if available right now. */
+    public synchronized boolean tryAcquire() {
+        long now = clock.getAsLong();
+        refill(now);
+        if (now - blockedUntil < 0 || tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /** Nanos until a token can be taken (0 when one is available now). */
+    public synchronized long nanosUntilAvailable() {
+        long now = clock.getAsLong();
+        refill(now);
+        long blocked = Math.max(0, blockedUntil - now);
+        long refill = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / refillPerNano);
+        return Math.max(blocked, refill);
+    }
+
+    /** Empty the bucket and refuse tokens for {@code millis}. */
+    public synchronized void block(long millis) {
+        long now = clock.getAsLong();
+        tokens = 0;
+        lastRefill = now;
+        blockedUntil = now + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * refillPerNano);
+            lastRefill = now;
+        }
+    }
+}
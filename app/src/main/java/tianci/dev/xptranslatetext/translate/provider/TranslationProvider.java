@@ -0,0 +1,44 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+/**
+ * A single translation backend (local ML Kit server, Gemini, free Google API...).
+ * Implementations return null or throw when they cannot translate; the
+ * {@link ProviderChain} turns either into a failure and moves on.
+ */
+public interface TranslationProvider {
+
+    /** Short stable name used for config ordering, stats and logs. */
+    String name();
+
+    /** False when the provider cannot be used at all (e.g. no API keys). */
+    default boolean isConfigured() {
+        return true;
+    }
+
+    /** Translate one text, or return null on failure. */
+    String translate(String text, String srcLang, String tgtLang, String cacheKey) throws Exception;
+
+    /**
+     * Translate many texts at once. Entries left null failed and may be retried by
+     * the next provider. The default makes one {@link #translate} call per text.
+     *
+     * @param tag log tag for the whole batch
+     */
+    default String[] translateBatch(String[] texts, String srcLang, String tgtLang, String tag) throws Exception {
+        String[] out = new String[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            out[i] = translate(texts[i], srcLang, tgtLang, srcLang + ":" + tgtLang + ":" + texts[i]);
+        }
+        return out;
+    }
+
+    /** True when {@link #translateQuick} is a real short-deadline path usable from the UI thread. */
+    default boolean supportsQuick() {
+        return false;
+    }
+
+    /** Short-deadline variant of {@link #translate}; unsupported providers return null. */
+    default String translateQuick(String text, String srcLang, String tgtLang, String cacheKey) throws Exception {
+        return null;
+    }
+}
@@ -0,0 +1,99 @@
+package tianci.dev.xptranslatetext.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe map keyed by object identity that does not keep its keys alive.
+ * For attaching state to objects we don't own (views, CharSequences, classes):
+ * entries vanish once the key is collected. Values must not reference their key.
+ */
+public final class WeakIdentityMap<K, V> {
+
+    private static final class WeakKey<K> extends WeakReference<K> {
+        final int hash;
+
+        WeakKey(K key, ReferenceQueue<? super K> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o instanceof WeakKey) {
+                Object referent = get();
+                return referent != null && referent == ((WeakKey<?>) o).get();
+            }
+            return o instanceof LookupKey && get() == ((LookupKey) o).key;
+        }
+    }
+
+    // Strong, short-lived probe so lookups don't have to create a WeakReference.
+    private static final class LookupKey {
+        final Object key;
+
+        LookupKey(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WeakKey && ((WeakKey<?>) o).get() == key;
+        }
+    }
+
+    private final Map<Object, V> map = new HashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    public V get(K key) {
+        if (key == null) return null;
+        synchronized (map) {
+            expunge();
+            return map.get(new LookupKey(key));
+        }
+    }
+
+    public void put(K key, V value) {
+        if (key == null) return;
+        synchronized (map) {
+            expunge();
+            map.put(new WeakKey<>(key, queue), value);
+        }
+    }
+
+    public V remove(K key) {
+        if (key == null) return null;
+        synchronized (map) {
+            expunge();
+            return map.remove(new LookupKey(key));
+        }
+    }
+
+    public int size() {
+        synchronized (map) {
+            expunge();
+            return map.size();
+        }
+    }
+
+    private void expunge() {
+        Reference<? extends K> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package tianci.dev.xptranslatetext;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * dex/settext-sample.dex is built with javac + dx from these classes in package "fixture":
+ * <pre>
+ * class Label { void setText(CharSequence) }         // declares: found
+ * class Outer { static class Inner { void setText(String) } }  // nested: found
+ * class Counter { void setText(int); void setText(String, int) }  // wrong signatures
+ * class Caller { bind(Label, Outer.Inner) calls both setText }    // only references them
+ * class SubLabel extends Label { }                   // inherits, does not declare
+ * </pre>
+ */
+public class DexSetTextScannerTest {
+    private static final List<String> EXPECTED = Arrays.asList("fixture.Label", "fixture.Outer$Inner");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] sampleDex() throws IOException {
+        try (InputStream in = DexSetTextScannerTest.class.getResourceAsStream("/dex/settext-sample.dex")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    private File apk(String... entries) throws IOException {
+        File file = tmp.newFile();
+        byte[] dex = sampleDex();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (String name : entries) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(name.endsWith(".dex") ? dex : new byte[]{1, 2, 3});
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void findsOnlyClassesDeclaringSetTextWithOneTextParam() throws IOException {
+        assertEquals(new HashSet<>(EXPECTED), new HashSet<>(DexSetTextScanner.scan(sampleDex())));
+    }
+
+    @Test
+    public void scansEveryDexEntryOfEveryApkOnce() throws IOException {
+        File base = apk("classes.dex", "classes2.dex", "res/raw/classes.dex.txt");
+        File split = apk("classes.dex");
+        List<String> found = DexSetTextScanner.scanApks(Arrays.asList(base.getPath(), split.getPath()));
+        assertEquals(new HashSet<>(EXPECTED), new HashSet<>(found));
+        assertEquals(EXPECTED.size(), found.size());
+    }
+
+    @Test
+    public void apkWithoutDexGivesNull() throws IOException {
+        assertNull(DexSetTextScanner.scanApks(Collections.singletonList(apk("res/x.png").getPath())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonDexInput() {
+        DexSetTextScanner.scan(new byte[0x70]);
+    }
+}
@@ -0,0 +1,79 @@
+package tianci.dev.xptranslatetext.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FuzzyTranslationMemoryTest {
+    private static final String PAIR = "en:zh-TW";
+
+    // Generous budget so a slow test machine never turns a match into a timeout.
+    private final FuzzyTranslationMemory memory = new FuzzyTranslationMemory(0.9, 1_000_000);
+
+    @Test
+    public void normalizeLowercasesAndCollapsesNonAlphanumerics() {
+        assertEquals("hello world 42", FuzzyTranslationMemory.normalize("  Hello,\tWORLD!! (42) "));
+        assertEquals("", FuzzyTranslationMemory.normalize("... !!"));
+        assertEquals("已讀 3", FuzzyTranslationMemory.normalize("已讀：3"));
+    }
+
+    @Test
+    public void gramsAreDistinctAndSorted() {
+        int[] grams = FuzzyTranslationMemory.grams("aaaa");
+        // " aaaa " -> " aa", "aaa", "aaa", "aa " -> three distinct
+        assertEquals(3, grams.length);
+        for (int i = 1; i < grams.length; i++) {
+            assertTrue(grams[i - 1] < grams[i]);
+        }
+        assertArrayEquals(FuzzyTranslationMemory.grams("abc"), FuzzyTranslationMemory.grams("abc"));
+        assertEquals(2, FuzzyTranslationMemory.grams("ab").length);
+    }
+
+    @Test
+    public void sameNormalizedTextIsAHit() {
+        memory.add(PAIR, "Download complete", "下載完成");
+        assertEquals("下載完成", memory.lookup(PAIR, "download complete!"));
+        assertEquals("下載完成", memory.lookup(PAIR, "  Download   Complete."));
+    }
+
+    @Test
+    public void onlyEditsAtOrAboveThresholdAreHits() {
+        memory.add(PAIR, "New messages from your contacts", "來自聯絡人的新訊息");
+        assertEquals("來自聯絡人的新訊息", memory.lookup(PAIR, "New message from your contacts"));
+
+        memory.add(PAIR, "Synchronizing your messages", "正在同步您的訊息");
+        // Dice 0.89, just under the threshold
+        assertNull(memory.lookup(PAIR, "Synchronising your messages"));
+    }
+
+    @Test
+    public void differentMeaningBelowThresholdIsAMiss() {
+        memory.add(PAIR, "Mute notifications", "靜音通知");
+        memory.add(PAIR, "Mark all as read", "全部標為已讀");
+        assertNull(memory.lookup(PAIR, "Unmute notifications"));
+        assertNull(memory.lookup(PAIR, "Mark as read"));
+    }
+
+    @Test
+    public void shortLongAndOtherPairTextsAreNotMatched() {
+        memory.add(PAIR, "Save", "儲存");
+        assertNull(memory.lookup(PAIR, "Save!"));
+
+        String longText = "This sentence is deliberately made much longer than the sixty four character limit.";
+        memory.add(PAIR, longText, "x");
+        assertNull(memory.lookup(PAIR, longText));
+
+        memory.add(PAIR, "Download complete", "下載完成");
+        assertNull(memory.lookup("en:ja", "Download complete"));
+    }
+
+    @Test
+    public void latestTranslationOfASourceWins() {
+        memory.add(PAIR, "Download complete", "下載完成");
+        memory.add(PAIR, "Download complete.", "下載已完成");
+        assertEquals("下載已完成", memory.lookup(PAIR, "Download complete"));
+    }
+}
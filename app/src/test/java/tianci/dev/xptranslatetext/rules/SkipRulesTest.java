@@ -0,0 +1,66 @@
+package tianci.dev.xptranslatetext.rules;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SkipRulesTest {
+
+    private static SkipRules rules(String json) {
+        return new SkipRules(new JSONArray(json));
+    }
+
+    @Test
+    public void prefixMatchesNestedClasses() {
+        SkipRules r = rules("[{\"prefix\": \"java.lang.\"}]");
+        assertTrue(r.shouldSkip(String.class, SkipRules.Hook.TEXT_VIEW, 100));
+        assertTrue(r.alwaysSkips(StringBuilder.class, SkipRules.Hook.CUSTOM_SET_TEXT));
+        assertFalse(r.shouldSkip(java.util.List.class, SkipRules.Hook.TEXT_VIEW, 100));
+    }
+
+    @Test
+    public void exactMatchesOnlyThatClass() {
+        SkipRules r = rules("[{\"exact\": \"java.lang.String\"}]");
+        assertTrue(r.shouldSkip(String.class, SkipRules.Hook.TEXT_VIEW, 1));
+        assertFalse(r.shouldSkip(StringBuilder.class, SkipRules.Hook.TEXT_VIEW, 1));
+        assertFalse(r.shouldSkip(Object.class, SkipRules.Hook.TEXT_VIEW, 1));
+    }
+
+    @Test
+    public void siblingBranchesStaySeparate() {
+        // Keys inserted out of order must still be found by the sorted lookup.
+        SkipRules r = rules("[{\"exact\": \"java.util.Map\"}, {\"exact\": \"java.util.List\"},"
+                + " {\"exact\": \"java.util.Set\"}, {\"prefix\": \"java.util.concurrent.\"}]");
+        assertTrue(r.shouldSkip(java.util.Map.class, SkipRules.Hook.TEXT_VIEW, 1));
+        assertTrue(r.shouldSkip(java.util.List.class, SkipRules.Hook.TEXT_VIEW, 1));
+        assertTrue(r.shouldSkip(java.util.Set.class, SkipRules.Hook.TEXT_VIEW, 1));
+        assertTrue(r.shouldSkip(java.util.concurrent.Future.class, SkipRules.Hook.TEXT_VIEW, 1));
+        assertFalse(r.shouldSkip(java.util.Locale.class, SkipRules.Hook.TEXT_VIEW, 1));
+    }
+
+    @Test
+    public void hooksAndMinLengthLimitTheRule() {
+        SkipRules r = rules("[{\"exact\": \"java.lang.String\", \"hooks\": [\"custom_set_text\"], \"minLength\": 3}]");
+        assertTrue(r.shouldSkip(String.class, SkipRules.Hook.CUSTOM_SET_TEXT, 2));
+        assertFalse(r.shouldSkip(String.class, SkipRules.Hook.CUSTOM_SET_TEXT, 3));
+        assertFalse(r.shouldSkip(String.class, SkipRules.Hook.TEXT_VIEW, 2));
+        assertFalse(r.alwaysSkips(String.class, SkipRules.Hook.CUSTOM_SET_TEXT));
+    }
+
+    @Test
+    public void strictestMatchingRuleWins() {
+        SkipRules r = rules("[{\"prefix\": \"java.\", \"minLength\": 2}, {\"exact\": \"java.lang.String\", \"minLength\": 5}]");
+        assertTrue(r.shouldSkip(String.class, SkipRules.Hook.TEXT_VIEW, 4));
+        assertFalse(r.shouldSkip(Object.class, SkipRules.Hook.TEXT_VIEW, 4));
+        assertTrue(r.shouldSkip(Object.class, SkipRules.Hook.TEXT_VIEW, 1));
+    }
+
+    @Test
+    public void emptyRulesNeverSkip() {
+        SkipRules r = rules("[]");
+        assertFalse(r.shouldSkip(String.class, SkipRules.Hook.TEXT_VIEW, 0));
+        assertFalse(r.alwaysSkips(String.class, SkipRules.Hook.TEXT_VIEW));
+    }
+}
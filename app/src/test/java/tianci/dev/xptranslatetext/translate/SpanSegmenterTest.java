@@ -0,0 +1,190 @@
+package tianci.dev.xptranslatetext.translate;
+
+import android.text.Spanned;
+
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SpanSegmenterTest {
+
+    /** Minimal in-memory Spanned: spans in insertion order, as getSpans() reports them. */
+    private static final class FakeSpanned implements Spanned {
+        final String text;
+        final List<Object> spans = new ArrayList<>();
+        final List<int[]> ranges = new ArrayList<>(); // start, end, flags
+
+        FakeSpanned(String text) {
+            this.text = text;
+        }
+
+        void setSpan(Object span, int start, int end, int flags) {
+            spans.add(span);
+            ranges.add(new int[]{start, end, flags});
+        }
+
+        private int[] range(Object span) {
+            int i = spans.indexOf(span);
+            return i < 0 ? new int[]{-1, -1, 0} : ranges.get(i);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T[] getSpans(int start, int end, Class<T> kind) {
+            List<Object> out = new ArrayList<>();
+            for (Object span : spans) {
+                if (kind.isInstance(span)) out.add(span);
+            }
+            return out.toArray((T[]) Array.newInstance(kind, 0));
+        }
+
+        @Override
+        public int getSpanStart(Object tag) {
+            return range(tag)[0];
+        }
+
+        @Override
+        public int getSpanEnd(Object tag) {
+            return range(tag)[1];
+        }
+
+        @Override
+        public int getSpanFlags(Object tag) {
+            return range(tag)[2];
+        }
+
+        @Override
+        public int nextSpanTransition(int start, int limit, Class kind) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /** The original per-segment rescan, kept as the reference behaviour. */
+    private static List<Segment> referenceSegments(Spanned spanned) {
+        List<Segment> segments = new ArrayList<>();
+        int textLen = spanned.length();
+        if (textLen == 0) {
+            return segments;
+        }
+        Object[] allSpans = spanned.getSpans(0, textLen, Object.class);
+        Set<Integer> boundarySet = new HashSet<>();
+        boundarySet.add(0);
+        boundarySet.add(textLen);
+        for (Object span : allSpans) {
+            boundarySet.add(spanned.getSpanStart(span));
+            boundarySet.add(spanned.getSpanEnd(span));
+        }
+        List<Integer> boundaries = new ArrayList<>(boundarySet);
+        Collections.sort(boundaries);
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            int segStart = boundaries.get(i);
+            int segEnd = boundaries.get(i + 1);
+            if (segStart >= segEnd) {
+                continue;
+            }
+            Segment seg = new Segment(segStart, segEnd, spanned.subSequence(segStart, segEnd).toString());
+            for (Object span : allSpans) {
+                int intersectStart = Math.max(spanned.getSpanStart(span), segStart);
+                int intersectEnd = Math.min(spanned.getSpanEnd(span), segEnd);
+                if (intersectStart < intersectEnd) {
+                    seg.spans.add(new SpanSpec(span, intersectStart - segStart, intersectEnd - segStart,
+                            spanned.getSpanFlags(span)));
+                }
+            }
+            segments.add(seg);
+        }
+        return segments;
+    }
+
+    private static void assertSameSegments(List<Segment> expected, List<Segment> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Segment e = expected.get(i);
+            Segment a = actual.get(i);
+            assertEquals(e.start, a.start);
+            assertEquals(e.end, a.end);
+            assertEquals(e.text, a.text);
+            assertEquals(e.spans.size(), a.spans.size());
+            for (int k = 0; k < e.spans.size(); k++) {
+                assertSame(e.spans.get(k).span, a.spans.get(k).span);
+                assertEquals(e.spans.get(k).start, a.spans.get(k).start);
+                assertEquals(e.spans.get(k).end, a.spans.get(k).end);
+                assertEquals(e.spans.get(k).flags, a.spans.get(k).flags);
+            }
+        }
+    }
+
+    @Test
+    public void emptyTextHasNoSegments() {
+        assertEquals(0, SpanSegmenter.segment(new FakeSpanned("")).size());
+    }
+
+    @Test
+    public void unstyledTextIsOneSegment() {
+        List<Segment> segments = SpanSegmenter.segment(new FakeSpanned("hello"));
+        assertEquals(1, segments.size());
+        assertEquals("hello", segments.get(0).text);
+        assertEquals(0, segments.get(0).spans.size());
+    }
+
+    @Test
+    public void overlappingSpansSplitAtEveryEdge() {
+        FakeSpanned s = new FakeSpanned("Hello brave world");
+        Object bold = new Object();
+        Object link = new Object();
+        s.setSpan(bold, 0, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        s.setSpan(link, 6, 17, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        List<Segment> segments = SpanSegmenter.segment(s);
+        assertSameSegments(referenceSegments(s), segments);
+        assertEquals(3, segments.size());
+        assertEquals("brave", segments.get(1).text);
+        assertEquals(2, segments.get(1).spans.size());
+    }
+
+    @Test
+    public void matchesReferenceOnRandomSpans() {
+        Random random = new Random(42);
+        for (int round = 0; round < 5000; round++) {
+            int len = random.nextInt(40);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < len; i++) sb.append((char) ('a' + random.nextInt(26)));
+            FakeSpanned s = new FakeSpanned(sb.toString());
+            int spanCount = len == 0 ? 0 : random.nextInt(8);
+            for (int i = 0; i < spanCount; i++) {
+                int a = random.nextInt(len + 1);
+                int b = random.nextInt(len + 1);
+                s.setSpan(new Object(), Math.min(a, b), Math.max(a, b), random.nextInt(64));
+            }
+            assertSameSegments(referenceSegments(s), SpanSegmenter.segment(s));
+        }
+    }
+}
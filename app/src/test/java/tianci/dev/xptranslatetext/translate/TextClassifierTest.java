@@ -0,0 +1,41 @@
+package tianci.dev.xptranslatetext.translate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextClassifierTest {
+    private final TextClassifier classifier = TextClassifier.forTarget("zh-TW");
+
+    @Test
+    public void skipsNonText() {
+        assertEquals(TextClassifier.Reason.EMPTY, classifier.classify("   "));
+        assertEquals(TextClassifier.Reason.NUMERIC, classifier.classify("12:30"));
+        assertEquals(TextClassifier.Reason.SYMBOLS, classifier.classify("!!!"));
+        assertEquals(TextClassifier.Reason.URL, classifier.classify("https://example.com/a"));
+        assertEquals(TextClassifier.Reason.EMAIL, classifier.classify("me@example.com"));
+        assertEquals(TextClassifier.Reason.MENTION, classifier.classify("@someone"));
+    }
+
+    @Test
+    public void markupAndIdentifiersAreCode() {
+        assertEquals(TextClassifier.Reason.CODE, classifier.classify("user_id"));
+        assertEquals(TextClassifier.Reason.CODE, classifier.classify("foo()"));
+        assertEquals(TextClassifier.Reason.CODE, classifier.classify("<br/>"));
+        assertEquals(TextClassifier.Reason.CODE, classifier.classify("</p>"));
+    }
+
+    @Test
+    public void arrowLabelsAreTranslated() {
+        assertEquals(TextClassifier.Reason.TRANSLATE, classifier.classify("<Back"));
+        assertEquals(TextClassifier.Reason.TRANSLATE, classifier.classify("Next>"));
+        assertEquals(TextClassifier.Reason.TRANSLATE, classifier.classify("Next >"));
+    }
+
+    @Test
+    public void targetScriptIsSkippedOnlyForDistinctiveScripts() {
+        assertEquals(TextClassifier.Reason.TARGET_SCRIPT, TextClassifier.forTarget("ko").classify("설정 열기"));
+        assertEquals(TextClassifier.Reason.TRANSLATE, TextClassifier.forTarget("ko").classify("Open settings"));
+        assertEquals(TextClassifier.Reason.TRANSLATE, classifier.classify("设置"));
+    }
+}
@@ -0,0 +1,105 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeminiKeySchedulerTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicLong parkedNanos = new AtomicLong();
+
+    /** Scheduler whose waits move the fake clock instead of sleeping. */
+    private GeminiKeyScheduler scheduler(int keys, int requestsPerMinute) {
+        return new GeminiKeyScheduler(keys, requestsPerMinute, now::get, nanos -> {
+            parkedNanos.addAndGet(nanos);
+            now.addAndGet(nanos);
+        });
+    }
+
+    private void advanceMs(long ms) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    @Test
+    public void roundRobinsOverKeys() {
+        GeminiKeyScheduler scheduler = scheduler(3, 30);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i % 3, scheduler.acquire(0));
+        }
+    }
+
+    @Test
+    public void skipsEmptyKeys() {
+        GeminiKeyScheduler scheduler = scheduler(2, 30);
+        int burst = GeminiKeyScheduler.burstFor(30);
+        for (int i = 0; i < burst; i++) {
+            assertEquals(0, scheduler.acquire(0));
+            scheduler.acquire(0);
+        }
+        // Both are empty now; after one refill each is usable once more.
+        assertEquals(-1, scheduler.acquire(0));
+        advanceMs(60_000);
+        assertTrue(scheduler.acquire(0) >= 0);
+    }
+
+    @Test
+    public void firstMinuteStaysWithinQuota() {
+        GeminiKeyScheduler scheduler = scheduler(1, 30);
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        int granted = 0;
+        while (true) {
+            int key = scheduler.acquire(60_000);
+            if (key < 0 || now.get() >= minute) break;
+            granted++;
+        }
+        assertTrue("granted " + granted, granted <= 30);
+        assertTrue("granted " + granted, granted >= 29);
+    }
+
+    @Test
+    public void shortWaitGivesUpWithoutParking() {
+        GeminiKeyScheduler scheduler = scheduler(1, 30);
+        for (int i = 0; i < GeminiKeyScheduler.burstFor(30); i++) {
+            assertEquals(0, scheduler.acquire(0));
+        }
+        // The next token is over 2 s away, so a 500 ms wait is hopeless.
+        assertEquals(-1, scheduler.acquire(500));
+        assertEquals(0, parkedNanos.get());
+
+        assertEquals(0, scheduler.acquire(3000));
+        assertTrue(parkedNanos.get() > TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void realClockTimesOutWithinWait() {
+        GeminiKeyScheduler scheduler = new GeminiKeyScheduler(1, 30);
+        scheduler.onRateLimited(0);
+        long start = System.nanoTime();
+        assertEquals(-1, scheduler.acquire(500));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void rateLimitedKeyIsBlockedForCooldown() {
+        GeminiKeyScheduler scheduler = scheduler(2, 30);
+        scheduler.onRateLimited(0);
+        for (int i = 0; i < GeminiKeyScheduler.burstFor(30); i++) {
+            assertEquals(1, scheduler.acquire(0));
+        }
+        assertEquals(-1, scheduler.acquire(0));
+
+        advanceMs(GeminiKeyScheduler.RATE_LIMITED_COOLDOWN_MS - 1);
+        // Key 1 has refilled by now, key 0 is still blocked.
+        for (int i = 0; i < GeminiKeyScheduler.burstFor(30); i++) {
+            assertEquals(1, scheduler.acquire(0));
+        }
+        assertEquals(-1, scheduler.acquire(0));
+
+        advanceMs(1);
+        assertEquals(0, scheduler.acquire(0));
+    }
+}
@@ -0,0 +1,174 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GeminiProviderTest {
+    private final List<String> logs = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void captureLogs() {
+        ProviderLog.setSink(logs::add);
+    }
+
+    /** A generateContent answer whose first candidate part is {@code text}. */
+    private static String candidate(String text) throws Exception {
+        return new JSONObject().put("candidates", new JSONArray().put(new JSONObject()
+                .put("content", new JSONObject().put("parts", new JSONArray()
+                        .put(new JSONObject().put("text", text)))))).toString();
+    }
+
+    /**
+     * Answer a batched request the way the schema asks, but in reverse order so the
+     * client has to realign by index: {"i": i, "t": "T(text)"}.
+     */
+    private static StandInServer.Response translateReversed(StandInServer.Request request) throws Exception {
+        JSONObject body = new JSONObject(request.body);
+        String userText = body.getJSONArray("contents").getJSONObject(0)
+                .getJSONArray("parts").getJSONObject(0).getString("text");
+        JSONArray items = new JSONArray(userText);
+        JSONArray answer = new JSONArray();
+        for (int k = items.length() - 1; k >= 0; k--) {
+            JSONObject item = items.getJSONObject(k);
+            answer.put(new JSONObject().put("i", item.getInt("i")).put("t", "T(" + item.getString("text") + ")"));
+        }
+        return new StandInServer.Response(200, candidate(answer.toString()));
+    }
+
+    private static GeminiProvider provider(StandInServer server, String... keys) {
+        return new GeminiProvider(server.baseUrl(), keys, new AdaptiveTimeouts());
+    }
+
+    @Test
+    public void estimatesAsciiAndCjkTokens() {
+        assertEquals(1, GeminiProvider.estimateTokens("abcd"));
+        assertEquals(2, GeminiProvider.estimateTokens("abcde"));
+        assertEquals(3, GeminiProvider.estimateTokens("你好嗎"));
+    }
+
+    @Test
+    public void splitsByTokenBudget() {
+        // 40 ASCII chars = 10 tokens + 8 overhead per item
+        String t = "0123456789012345678901234567890123456789";
+        List<int[]> batches = GeminiProvider.splitByTokens(new String[]{t, t, t, t, t}, 40, 64);
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{0, 1}, batches.get(0));
+        assertArrayEquals(new int[]{2, 3}, batches.get(1));
+        assertArrayEquals(new int[]{4}, batches.get(2));
+    }
+
+    @Test
+    public void splitsByItemCountAndKeepsOversizedTextAlone() {
+        List<int[]> batches = GeminiProvider.splitByTokens(new String[]{"a", "b", "c"}, 1000, 2);
+        assertEquals(2, batches.size());
+        assertArrayEquals(new int[]{2}, batches.get(1));
+
+        StringBuilder huge = new StringBuilder();
+        for (int i = 0; i < 1000; i++) huge.append("word ");
+        batches = GeminiProvider.splitByTokens(new String[]{"a", huge.toString(), "b"}, 100, 64);
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{1}, batches.get(1));
+    }
+
+    @Test
+    public void batchBodyIndexesItemsAndAsksForTheSchema() throws Exception {
+        JSONObject body = GeminiProvider.buildBatchBody(new String[]{"x", "one", "two"}, new int[]{1, 2}, "fr");
+        JSONArray items = new JSONArray(body.getJSONArray("contents").getJSONObject(0)
+                .getJSONArray("parts").getJSONObject(0).getString("text"));
+        assertEquals(2, items.length());
+        assertEquals(0, items.getJSONObject(0).getInt("i"));
+        assertEquals("one", items.getJSONObject(0).getString("text"));
+        assertEquals(1, items.getJSONObject(1).getInt("i"));
+
+        JSONObject config = body.getJSONObject("generationConfig");
+        assertEquals("application/json", config.getString("responseMimeType"));
+        JSONObject props = config.getJSONObject("responseSchema").getJSONObject("items").getJSONObject("properties");
+        assertEquals("INTEGER", props.getJSONObject("i").getString("type"));
+        assertEquals("STRING", props.getJSONObject("t").getString("type"));
+    }
+
+    @Test
+    public void batchResultIsRealignedByIndex() throws Exception {
+        String[] out = new String[8];
+        String answer = "[{\"i\":2,\"t\":\" c \"},{\"i\":0,\"t\":\"a\"},"
+                + "{\"i\":7,\"t\":\"out of range\"},{\"i\":1,\"t\":\"  \"},{\"t\":\"no index\"},\"junk\"]";
+        GeminiProvider.parseBatchResult("tag", candidate(answer), new int[]{3, 5, 6}, out);
+        assertEquals("a", out[3]);
+        assertNull("blank translation stays untranslated", out[5]);
+        assertEquals("c", out[6]);
+        assertNull(out[7]);
+    }
+
+    @Test
+    public void malformedBatchResultLeavesEverythingNull() throws Exception {
+        String[] out = new String[2];
+        GeminiProvider.parseBatchResult("tag", candidate("not json"), new int[]{0, 1}, out);
+        GeminiProvider.parseBatchResult("tag", "{\"candidates\":[]}", new int[]{0, 1}, out);
+        assertArrayEquals(new String[2], out);
+        assertFalse(logs.isEmpty());
+    }
+
+    @Test
+    public void singleResultIsTrimmed() throws Exception {
+        assertEquals("bonjour", GeminiProvider.parseResult("k", candidate(" bonjour\n")));
+        assertNull(GeminiProvider.parseResult("k", "{}"));
+    }
+
+    @Test
+    public void batchRoundTripThroughStandInServer() throws Exception {
+        try (StandInServer server = new StandInServer((i, r) -> translateReversed(r))) {
+            String[] out = provider(server, "k1").translateBatch(new String[]{"one", "two", "three"}, "en", "fr", "tag");
+            assertArrayEquals(new String[]{"T(one)", "T(two)", "T(three)"}, out);
+
+            List<StandInServer.Request> requests = server.requests();
+            assertEquals(1, requests.size());
+            assertEquals("POST", requests.get(0).method);
+            assertTrue(requests.get(0).uri, requests.get(0).uri.endsWith(":generateContent?key=k1"));
+        }
+    }
+
+    @Test
+    public void rateLimitedKeyRotatesToTheNextOne() throws Exception {
+        try (StandInServer server = new StandInServer((i, r) ->
+                i == 0 ? new StandInServer.Response(429, "{}") : translateReversed(r))) {
+            String[] out = provider(server, "k1", "k2").translateBatch(new String[]{"one", "two"}, "en", "fr", "tag");
+            assertArrayEquals(new String[]{"T(one)", "T(two)"}, out);
+
+            List<StandInServer.Request> requests = server.requests();
+            assertEquals(2, requests.size());
+            assertTrue(requests.get(0).uri.endsWith("key=k1"));
+            assertTrue(requests.get(1).uri.endsWith("key=k2"));
+        }
+    }
+
+    @Test
+    public void batchStopsAtTheFirstIoErrorAndKeepsEarlierResults() throws Exception {
+        String[] texts = new String[GeminiProvider.MAX_BATCH_ITEMS * 2 + 1];
+        for (int i = 0; i < texts.length; i++) texts[i] = "t" + i;
+        // Second request: connection dropped without an answer.
+        try (StandInServer server = new StandInServer((i, r) -> i == 1 ? null : translateReversed(r))) {
+            String[] out = provider(server, "k1").translateBatch(texts, "en", "fr", "tag");
+
+            assertEquals(2, server.requests().size());
+            for (int i = 0; i < GeminiProvider.MAX_BATCH_ITEMS; i++) {
+                assertEquals("T(t" + i + ")", out[i]);
+            }
+            for (int i = GeminiProvider.MAX_BATCH_ITEMS; i < texts.length; i++) {
+                assertNull(out[i]);
+            }
+        }
+        assertTrue(logs.toString(), logs.toString().contains("gemini batch failed"));
+    }
+}
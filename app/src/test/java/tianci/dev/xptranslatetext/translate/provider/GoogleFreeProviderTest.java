@@ -0,0 +1,163 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GoogleFreeProviderTest {
+    private final List<String> logs = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void captureLogs() {
+        ProviderLog.setSink(logs::add);
+    }
+
+    /** Values of every {@code q} parameter in a query string or form body. */
+    private static List<String> queries(String params) throws Exception {
+        List<String> out = new ArrayList<>();
+        for (String pair : params.split("&")) {
+            if (pair.startsWith("q=")) out.add(URLDecoder.decode(pair.substring(2), "UTF-8"));
+        }
+        return out;
+    }
+
+    /** translate_a/single answer for one text. */
+    private static String singleAnswer(String translation) {
+        return new JSONArray().put(new JSONArray().put(new JSONArray().put(translation).put("src"))).toString();
+    }
+
+    /**
+     * Stand-in for both endpoints: batch POSTs get "B(q)" per query, as plain strings or
+     * as [text, lang] pairs; single GETs get "G(q)".
+     */
+    private static StandInServer.Response answer(StandInServer.Request r, boolean pairs, int dropItems) throws Exception {
+        if (r.uri.startsWith("/translate_a/single")) {
+            return new StandInServer.Response(200, singleAnswer("G(" + queries(r.uri.substring(r.uri.indexOf('?') + 1)).get(0) + ")"));
+        }
+        JSONArray out = new JSONArray();
+        List<String> qs = queries(r.body);
+        for (int i = 0; i < qs.size() - dropItems; i++) {
+            String t = "B(" + qs.get(i) + ")";
+            out.put(pairs ? new JSONArray().put(t).put("en") : t);
+        }
+        return new StandInServer.Response(200, out.toString());
+    }
+
+    private static GoogleFreeProvider provider(StandInServer server) {
+        return new GoogleFreeProvider(server.baseUrl(), new AdaptiveTimeouts());
+    }
+
+    @Test
+    public void chunksByPayloadBytes() throws Exception {
+        // "q=aaaa" is 6 bytes, joined with '&'
+        List<GoogleFreeProvider.Chunk> chunks =
+                GoogleFreeProvider.chunkByPayload(new String[]{"aaaa", "bbbb", "cccc"}, 13, 50);
+        assertEquals(2, chunks.size());
+        assertEquals(0, chunks.get(0).offset);
+        assertEquals(2, chunks.get(0).count);
+        assertEquals("q=aaaa&q=bbbb", chunks.get(0).form);
+        assertEquals(2, chunks.get(1).offset);
+        assertEquals("q=cccc", chunks.get(1).form);
+    }
+
+    @Test
+    public void chunksByItemCountAndEncodesTexts() throws Exception {
+        List<GoogleFreeProvider.Chunk> chunks =
+                GoogleFreeProvider.chunkByPayload(new String[]{"a b", "c&d", "e"}, 5000, 2);
+        assertEquals(2, chunks.size());
+        assertEquals("q=a+b&q=c%26d", chunks.get(0).form);
+        assertEquals(1, chunks.get(1).count);
+    }
+
+    @Test
+    public void oversizedTextGetsItsOwnChunk() throws Exception {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100; i++) big.append('x');
+        List<GoogleFreeProvider.Chunk> chunks =
+                GoogleFreeProvider.chunkByPayload(new String[]{"a", big.toString(), "b"}, 20, 50);
+        assertEquals(3, chunks.size());
+        assertEquals(1, chunks.get(1).count);
+    }
+
+    @Test
+    public void parsesBothBatchItemShapes() {
+        assertArrayEquals(new String[]{"a", "b"}, GoogleFreeProvider.parseBatchResult("t", "[\"a\",\" b \"]", 2));
+        assertArrayEquals(new String[]{"a", "b"},
+                GoogleFreeProvider.parseBatchResult("t", "[[\"a\",\"en\"],[\"b\",\"ja\"]]", 2));
+        assertArrayEquals(new String[]{"a", null}, GoogleFreeProvider.parseBatchResult("t", "[[\"a\",\"en\"],\"  \"]", 2));
+    }
+
+    @Test
+    public void misalignedOrMalformedBatchAnswerIsRejected() {
+        assertNull(GoogleFreeProvider.parseBatchResult("t", "[\"a\"]", 2));
+        assertNull(GoogleFreeProvider.parseBatchResult("t", "[\"a\",42]", 2));
+        assertNull(GoogleFreeProvider.parseBatchResult("t", "<html>", 2));
+    }
+
+    @Test
+    public void parsesSingleAnswerSentences() {
+        assertEquals("Bonjour. Ça va?", GoogleFreeProvider.parseResult("k",
+                "[[[\"Bonjour. \",\"Hello. \"],[\"Ça va?\",\"How are you?\"]],null,\"en\"]"));
+    }
+
+    @Test
+    public void batchPostsEveryQueryInOneForm() throws Exception {
+        try (StandInServer server = new StandInServer((i, r) -> answer(r, true, 0))) {
+            String[] out = provider(server).translateBatch(new String[]{"one", "a&b", "三"}, "auto", "fr", "tag");
+            assertArrayEquals(new String[]{"B(one)", "B(a&b)", "B(三)"}, out);
+
+            List<StandInServer.Request> requests = server.requests();
+            assertEquals(1, requests.size());
+            assertEquals("POST", requests.get(0).method);
+            assertTrue(requests.get(0).uri, requests.get(0).uri.startsWith("/translate_a/t?client=gtx&format=text&sl=auto&tl=fr"));
+            assertEquals(Arrays.asList("one", "a&b", "三"), queries(requests.get(0).body));
+        }
+    }
+
+    @Test
+    public void misalignedBatchFallsBackToOneGetPerText() throws Exception {
+        try (StandInServer server = new StandInServer((i, r) -> answer(r, false, 1))) {
+            String[] out = provider(server).translateBatch(new String[]{"one", "two"}, "en", "fr", "tag");
+            assertArrayEquals(new String[]{"G(one)", "G(two)"}, out);
+
+            List<StandInServer.Request> requests = server.requests();
+            assertEquals(3, requests.size());
+            assertEquals("GET", requests.get(1).method);
+            assertTrue(requests.get(1).uri.startsWith("/translate_a/single"));
+        }
+    }
+
+    @Test
+    public void errorAnswerStopsWithoutSingleRequests() throws Exception {
+        try (StandInServer server = new StandInServer((i, r) -> new StandInServer.Response(429, ""))) {
+            String[] out = provider(server).translateBatch(new String[]{"one", "two"}, "en", "fr", "tag");
+            assertArrayEquals(new String[2], out);
+            assertEquals(1, server.requests().size());
+        }
+    }
+
+    @Test
+    public void droppedConnectionStopsTheFallback() throws Exception {
+        // Batch answer is misaligned and single GETs are dropped: "two" is never asked for.
+        try (StandInServer server = new StandInServer((i, r) ->
+                r.uri.startsWith("/translate_a/single") ? null : answer(r, false, 1))) {
+            String[] out = provider(server).translateBatch(new String[]{"one", "two"}, "en", "fr", "tag");
+            assertArrayEquals(new String[2], out);
+            for (StandInServer.Request r : server.requests()) {
+                assertTrue(r.uri, !r.uri.startsWith("/translate_a/single") || r.uri.endsWith("q=one"));
+            }
+        }
+        assertTrue(logs.toString(), logs.toString().contains("fallback failed"));
+    }
+}
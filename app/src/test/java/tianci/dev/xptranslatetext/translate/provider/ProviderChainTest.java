@@ -0,0 +1,168 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderChainTest {
+
+    /** Answers "name(text)", or fails for texts in {@code failing}; records what it was asked. */
+    private static final class StubProvider implements TranslationProvider {
+        final String name;
+        final List<String> failing = new ArrayList<>();
+        final List<String> asked = new ArrayList<>();
+        boolean throwing;
+        volatile long sleepMs;
+
+        StubProvider(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String translate(String text, String srcLang, String tgtLang, String cacheKey) throws Exception {
+            synchronized (asked) {
+                asked.add(text);
+            }
+            if (sleepMs > 0) Thread.sleep(sleepMs);
+            if (throwing) throw new java.io.IOException("down");
+            return failing.contains(text) ? null : name + "(" + text + ")";
+        }
+    }
+
+    private static String[] texts(ProviderChain.Result[] results) {
+        String[] out = new String[results.length];
+        for (int i = 0; i < results.length; i++) {
+            out[i] = results[i] == null ? null : results[i].text;
+        }
+        return out;
+    }
+
+    @Test
+    public void orderedPicksNamedProvidersInOrder() {
+        StubProvider a = new StubProvider("a");
+        StubProvider b = new StubProvider("b");
+        ProviderChain chain = ProviderChain.ordered("b, a", Arrays.asList(a, b));
+        assertEquals("b", chain.getEntries().get(0).provider.name());
+        assertEquals("a", chain.getEntries().get(1).provider.name());
+    }
+
+    @Test
+    public void fallsBackToNextProvider() {
+        StubProvider a = new StubProvider("a");
+        StubProvider b = new StubProvider("b");
+        a.throwing = true;
+        ProviderChain chain = new ProviderChain(Arrays.asList(a, b));
+
+        ProviderChain.Result r = chain.translate("hi", "en", "fr", "k");
+        assertEquals("b(hi)", r.text);
+        assertEquals("b", r.provider);
+    }
+
+    @Test
+    public void openBreakerSkipsProvider() {
+        StubProvider a = new StubProvider("a");
+        StubProvider b = new StubProvider("b");
+        a.throwing = true;
+        ProviderChain chain = new ProviderChain(Arrays.asList(a, b));
+        for (int i = 0; i < 3; i++) {
+            chain.translate("t" + i, "en", "fr", "k");
+        }
+        a.asked.clear();
+
+        assertEquals("b(x)", chain.translate("x", "en", "fr", "k").text);
+        assertEquals(0, a.asked.size());
+        assertEquals(CircuitBreaker.State.OPEN, chain.getEntries().get(0).breaker.getState());
+    }
+
+    @Test
+    public void nullWhenEveryProviderFails() {
+        StubProvider a = new StubProvider("a");
+        a.failing.add("x");
+        assertNull(new ProviderChain(Arrays.asList(a)).translate("x", "en", "fr", "k"));
+    }
+
+    @Test
+    public void batchPassesOnlyMissingTextsToNextProvider() {
+        StubProvider a = new StubProvider("a");
+        StubProvider b = new StubProvider("b");
+        a.failing.add("two");
+        ProviderChain chain = new ProviderChain(Arrays.asList(a, b));
+
+        ProviderChain.Result[] results = chain.translateBatch(new String[]{"one", "two", "three"}, "en", "fr", "tag");
+        assertArrayEquals(new String[]{"a(one)", "b(two)", "a(three)"}, texts(results));
+        assertEquals(Arrays.asList("two"), b.asked);
+    }
+
+    @Test
+    public void batchKeepsPartialResultsWhenLaterProvidersFail() {
+        StubProvider a = new StubProvider("a");
+        StubProvider b = new StubProvider("b");
+        a.failing.add("two");
+        b.throwing = true;
+        ProviderChain chain = new ProviderChain(Arrays.asList(a, b));
+
+        ProviderChain.Result[] results = chain.translateBatch(new String[]{"one", "two"}, "en", "fr", "tag");
+        assertArrayEquals(new String[]{"a(one)", null}, texts(results));
+    }
+
+    /** Chain a, b with hedging on and enough fast samples for a to have a p95. */
+    private static ProviderChain hedgedChain(StubProvider a, StubProvider b, ExecutorService executor) {
+        ProviderChain chain = new ProviderChain(Arrays.asList(a, b));
+        chain.enableHedging(executor, new HedgeBudget(1, 10));
+        for (int i = 0; i < 20; i++) {
+            chain.translate("warm" + i, "en", "fr", "k");
+        }
+        return chain;
+    }
+
+    @Test
+    public void slowPrimaryBatchIsHedged() {
+        StubProvider a = new StubProvider("a");
+        StubProvider b = new StubProvider("b");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ProviderChain chain = hedgedChain(a, b, executor);
+            a.sleepMs = 5000;
+
+            long start = System.nanoTime();
+            ProviderChain.Result[] results = chain.translateBatch(new String[]{"one", "two"}, "en", "fr", "tag");
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            assertArrayEquals(new String[]{"b(one)", "b(two)"}, texts(results));
+            assertTrue("took " + elapsedMs + " ms", elapsedMs < 2000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void hedgedBatchMergesPartialSides() {
+        StubProvider a = new StubProvider("a");
+        StubProvider b = new StubProvider("b");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ProviderChain chain = hedgedChain(a, b, executor);
+            a.sleepMs = 200;
+            a.failing.add("two");
+            b.failing.add("one");
+
+            ProviderChain.Result[] results = chain.translateBatch(new String[]{"one", "two"}, "en", "fr", "tag");
+            assertArrayEquals(new String[]{"a(one)", "b(two)"}, texts(results));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Local HTTP server standing in for a translation backend. Each request is recorded
+ * and answered by the {@link Responder}; a null answer drops the connection without
+ * a response, which the client sees as an IOException.
+ */
+final class StandInServer implements AutoCloseable {
+
+    static final class Request {
+        final String method;
+        final String uri;
+        final String body;
+
+        Request(String method, String uri, String body) {
+            this.method = method;
+            this.uri = uri;
+            this.body = body;
+        }
+    }
+
+    static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    interface Responder {
+        /** @param index 0-based number of the request */
+        Response respond(int index, Request request) throws Exception;
+    }
+
+    private final HttpServer server;
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+
+    StandInServer(Responder responder) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> handle(exchange, responder));
+        server.start();
+    }
+
+    private void handle(HttpExchange exchange, Responder responder) throws IOException {
+        try {
+            Request request = new Request(exchange.getRequestMethod(),
+                    exchange.getRequestURI().toString(), read(exchange.getRequestBody()));
+            int index;
+            synchronized (requests) {
+                index = requests.size();
+                requests.add(request);
+            }
+            Response response = responder.respond(index, request);
+            if (response == null) {
+                return;
+            }
+            byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(response.status, bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            }
+        } catch (Exception e) {
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    List<Request> requests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,62 @@
+package tianci.dev.xptranslatetext.translate.provider;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+    private final AtomicLong now = new AtomicLong();
+    // 2 tokens, one more every second.
+    private final TokenBucket bucket = new TokenBucket(2, 60, now::get);
+
+    private void advanceMs(long ms) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    @Test
+    public void startsFullAndEmpties() {
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void refillsOverTime() {
+        bucket.tryAcquire();
+        bucket.tryAcquire();
+        assertEquals(TimeUnit.SECONDS.toNanos(1), bucket.nanosUntilAvailable());
+
+        advanceMs(999);
+        assertFalse(bucket.tryAcquire());
+        advanceMs(1);
+        assertEquals(0, bucket.nanosUntilAvailable());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void refillStopsAtCapacity() {
+        advanceMs(60_000);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void blockRefusesUntilItEnds() {
+        bucket.block(5000);
+        assertEquals(TimeUnit.SECONDS.toNanos(5), bucket.nanosUntilAvailable());
+
+        advanceMs(4999);
+        assertFalse(bucket.tryAcquire());
+        advanceMs(1);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+}
@@ -0,0 +1,69 @@
+package tianci.dev.xptranslatetext.util;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WeakIdentityMapTest {
+    private final WeakIdentityMap<Object, String> map = new WeakIdentityMap<>();
+
+    @Test
+    public void keysAreComparedByIdentityNotEquals() {
+        String a = new String("label");
+        String b = new String("label");
+        map.put(a, "A");
+        assertEquals("A", map.get(a));
+        assertNull(map.get(b));
+
+        map.put(b, "B");
+        assertEquals(2, map.size());
+        assertEquals("A", map.get(a));
+        assertEquals("B", map.get(b));
+    }
+
+    @Test
+    public void putReplacesAndRemoveDrops() {
+        Object key = new Object();
+        map.put(key, "first");
+        map.put(key, "second");
+        assertEquals(1, map.size());
+        assertEquals("second", map.get(key));
+
+        assertEquals("second", map.remove(key));
+        assertNull(map.get(key));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void nullKeysAreIgnored() {
+        map.put(null, "x");
+        assertNull(map.get(null));
+        assertNull(map.remove(null));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void collectedKeysAreCleared() throws InterruptedException {
+        Object kept = new Object();
+        map.put(kept, "kept");
+        WeakReference<Object> dropped = putAndForget();
+        assertEquals(2, map.size());
+
+        for (int i = 0; i < 50 && (dropped.get() != null || map.size() > 1); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(dropped.get());
+        assertEquals(1, map.size());
+        assertEquals("kept", map.get(kept));
+    }
+
+    private WeakReference<Object> putAndForget() {
+        Object key = new Object();
+        map.put(key, "dropped");
+        return new WeakReference<>(key);
+    }
+}